@@ -16,6 +16,7 @@
 
 package com.android.internal.policy.impl;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import android.content.Context;
@@ -28,6 +29,40 @@ public class MidLayoutInflater extends LayoutInflater {
         "android.widget.",
         "android.webkit."
     };
+
+    // The prefix from sClassPrefixList that each tag name was found under,
+    // or NO_PREFIX if it is in none of them and was left to the base class,
+    // so a name only costs a ClassNotFoundException the first time.  Shared
+    // by every inflater in the process, since the prefixes only hold
+    // framework classes.
+    private static final String NO_PREFIX = "";
+    private static final HashMap<String, String> sResolvedPrefixes
+            = new HashMap<String, String>();
+
+    // Tags common enough to resolve when the class is loaded, which happens
+    // in the zygote when the policy preloads it.
+    private static final String[] sPrewarmNames = {
+        "LinearLayout", "RelativeLayout", "FrameLayout", "ScrollView", "ListView",
+        "TextView", "EditText", "Button", "ImageButton", "ImageView", "CheckBox",
+        "ProgressBar", "WebView", "View", "ViewStub", "SurfaceView",
+    };
+
+    static {
+        final ClassLoader loader = LayoutInflater.class.getClassLoader();
+        for (String name : sPrewarmNames) {
+            String resolved = NO_PREFIX;
+            for (String prefix : sClassPrefixList) {
+                try {
+                    Class.forName(prefix + name, false, loader);
+                    resolved = prefix;
+                    break;
+                } catch (ClassNotFoundException e) {
+                    // try the next prefix
+                }
+            }
+            sResolvedPrefixes.put(name, resolved);
+        }
+    }
     
     /**
      * Instead of instantiating directly, you should retrieve an instance
@@ -51,10 +86,22 @@ public class MidLayoutInflater extends LayoutInflater {
         call through to our super class.
     */
     @Override protected View onCreateView(String name, AttributeSet attrs) throws ClassNotFoundException {
+        final String resolved;
+        synchronized (sResolvedPrefixes) {
+            resolved = sResolvedPrefixes.get(name);
+        }
+        if (resolved != null) {
+            if (resolved == NO_PREFIX) {
+                return super.onCreateView(name, attrs);
+            }
+            return createView(name, resolved, attrs);
+        }
+
         for (String prefix : sClassPrefixList) {
             try {
                 View view = createView(name, prefix, attrs);
                 if (view != null) {
+                    setResolvedPrefix(name, prefix);
                     return view;
                 }
             } catch (ClassNotFoundException e) {
@@ -63,8 +110,15 @@ public class MidLayoutInflater extends LayoutInflater {
             }
         }
 
+        setResolvedPrefix(name, NO_PREFIX);
         return super.onCreateView(name, attrs);
     }
+
+    private static void setResolvedPrefix(String name, String prefix) {
+        synchronized (sResolvedPrefixes) {
+            sResolvedPrefixes.put(name, prefix);
+        }
+    }
     
     public LayoutInflater cloneInContext(Context newContext) {
         return new MidLayoutInflater(this, newContext);
@@ -79,10 +79,13 @@ import android.view.animation.Animation;
 import android.media.IAudioService;
 import android.media.AudioManager;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /**
  * WindowManagerPolicy implementation for the Android MID UI.
  */
-public class MidWindowManager implements WindowManagerPolicy {
+public class MidWindowManager implements WindowManagerPolicy, PolicyDump.Dumpable {
     private static final String TAG = "MidWindowManager";
     private static final boolean DEBUG = false;
     private static final boolean localLOGV = DEBUG ? Config.LOGD : Config.LOGV;
@@ -125,6 +128,9 @@ public class MidWindowManager implements WindowManagerPolicy {
     private IWindowManager mWindowManager;
     private LocalPowerManager mPowerManager;
 
+    // Window type to layer lookup, built in init().
+    private WindowLayerTable mLayerTable;
+
     boolean mSafeMode;
     private WindowState mStatusBar = null;
     private WindowState mSearchBar = null;
@@ -223,6 +229,14 @@ public class MidWindowManager implements WindowManagerPolicy {
         mContext = context;
         mWindowManager = windowManager;
         mPowerManager = powerManager;
+        mLayerTable = new WindowLayerTable(new WindowLayerTable.LayerMapper() {
+            public int mapWindowType(int type) {
+                return mapWindowTypeToLayer(type);
+            }
+            public int mapSubWindowType(int type) {
+                return mapSubWindowTypeToLayer(type);
+            }
+        });
         mHandler = new Handler();
         mShortcutManager = new ShortcutManager(context, mHandler);
         mShortcutManager.observe();
@@ -233,6 +247,7 @@ public class MidWindowManager implements WindowManagerPolicy {
         PowerManager pm = (PowerManager)context.getSystemService(Context.POWER_SERVICE);
         mBroadcastWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
                 "MidWindowManager.mBroadcastWakeLock");
+        PolicyDump.register(context, TAG, this);
     }
 
     /** {@inheritDoc} */
@@ -296,6 +311,28 @@ public class MidWindowManager implements WindowManagerPolicy {
     
     /** {@inheritDoc} */
     public int windowTypeToLayerLw(int type) {
+        final int layer = mLayerTable.getWindowLayer(type);
+        if (layer != WindowLayerTable.UNKNOWN) {
+            return layer;
+        }
+        Log.e(TAG, "Unknown window type: " + type);
+        return APPLICATION_LAYER;
+    }
+
+    /** {@inheritDoc} */
+    public int subWindowTypeToLayerLw(int type) {
+        final int layer = mLayerTable.getSubWindowLayer(type);
+        if (layer != WindowLayerTable.UNKNOWN) {
+            return layer;
+        }
+        Log.e(TAG, "Unknown sub-window type: " + type);
+        return 0;
+    }
+
+    /**
+     * The layer assignment {@link #mLayerTable} is built from.
+     */
+    private static int mapWindowTypeToLayer(int type) {
         if (type >= FIRST_APPLICATION_WINDOW && type <= LAST_APPLICATION_WINDOW) {
             return APPLICATION_LAYER;
         }
@@ -327,12 +364,13 @@ public class MidWindowManager implements WindowManagerPolicy {
         case TYPE_TOAST:
             return TOAST_LAYER;
         }
-        Log.e(TAG, "Unknown window type: " + type);
-        return APPLICATION_LAYER;
+        return WindowLayerTable.UNKNOWN;
     }
 
-    /** {@inheritDoc} */
-    public int subWindowTypeToLayerLw(int type) {
+    /**
+     * The sub-layer assignment {@link #mLayerTable} is built from.
+     */
+    private static int mapSubWindowTypeToLayer(int type) {
         switch (type) {
         case TYPE_APPLICATION_PANEL:
             return APPLICATION_PANEL_SUBLAYER;
@@ -343,8 +381,7 @@ public class MidWindowManager implements WindowManagerPolicy {
         case TYPE_APPLICATION_SUB_PANEL:
             return APPLICATION_SUB_PANEL_SUBLAYER;
         }
-        Log.e(TAG, "Unknown sub-window type: " + type);
-        return 0;
+        return WindowLayerTable.UNKNOWN;
     }
 
     public int getMaxWallpaperLayer() {
@@ -654,7 +691,6 @@ public class MidWindowManager implements WindowManagerPolicy {
             if (down && repeatCount == 0) {
                 Intent shortcutIntent = mShortcutManager.getIntent(code, metaKeys);
                 if (shortcutIntent != null) {
-                    shortcutIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
                     mContext.startActivity(shortcutIntent);
                     
                     /*
@@ -1094,4 +1130,8 @@ public class MidWindowManager implements WindowManagerPolicy {
     public boolean allowKeyRepeat() {
         return true;
     }
+
+    public void dump(String prefix, FileDescriptor fd, PrintWriter pw, String[] args) {
+        mLayerTable.dump(prefix, pw);
+    }
 }
@@ -21,12 +21,14 @@ import android.content.Intent;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
 import android.util.SparseArray;
 import android.view.KeyCharacterMap;
 
 import java.net.URISyntaxException;
+import java.util.HashMap;
 
 /**
  * Manages quick launch shortcuts by:
@@ -36,6 +38,17 @@ import java.net.URISyntaxException;
 class ShortcutManager extends ContentObserver {
     
     private static final String TAG = "ShortcutManager";
+
+    /**
+     * How long to wait after a change notification before re-reading the
+     * bookmarks, so that a burst of writes turns into a single refresh.
+     */
+    private static final long UPDATE_DELAY_MS = 250;
+    /**
+     * The longest a steady stream of changes can put the refresh off,
+     * counted from the first change not yet picked up.
+     */
+    private static final long MAX_UPDATE_DELAY_MS = 1000;
     
     private static final int COLUMN_SHORTCUT = 0;
     private static final int COLUMN_INTENT = 1;
@@ -44,14 +57,40 @@ class ShortcutManager extends ContentObserver {
     };
 
     private Context mContext;
+    private Handler mHandler;
     private Cursor mCursor;
-    /** Map of a shortcut to its intent. */
-    private SparseArray<Intent> mShortcutIntents;
+    /**
+     * Map of a shortcut to its intent.  Never modified once published; each
+     * update builds a new map and swaps it in, so {@link #getIntent} can
+     * read it from the key dispatch thread without locking.
+     */
+    private volatile SparseArray<Intent> mShortcutIntents;
+    /** The built-in keyboard's character map, loaded on first use. */
+    private KeyCharacterMap mKeyCharacterMap;
+    /**
+     * The intents in {@link #mShortcutIntents} keyed by the URI they were
+     * parsed from, so a refresh only parses rows whose URI changed.
+     */
+    private HashMap<String, Intent> mParsedIntents = new HashMap<String, Intent>();
+
+    /**
+     * Uptime of the first change since the last refresh, or 0 if there is
+     * none.  Only touched on the handler's thread.
+     */
+    private long mFirstPendingChange;
+
+    private final Runnable mUpdateShortcuts = new Runnable() {
+        public void run() {
+            mFirstPendingChange = 0;
+            updateShortcuts();
+        }
+    };
     
     public ShortcutManager(Context context, Handler handler) {
         super(handler);
         
         mContext = context;
+        mHandler = handler;
         mShortcutIntents = new SparseArray<Intent>();
     }
 
@@ -65,7 +104,13 @@ class ShortcutManager extends ContentObserver {
 
     @Override
     public void onChange(boolean selfChange) {
-        updateShortcuts();
+        final long now = SystemClock.uptimeMillis();
+        if (mFirstPendingChange == 0) {
+            mFirstPendingChange = now;
+        }
+        mHandler.removeCallbacks(mUpdateShortcuts);
+        mHandler.postAtTime(mUpdateShortcuts,
+                Math.min(now + UPDATE_DELAY_MS, mFirstPendingChange + MAX_UPDATE_DELAY_MS));
     }
     
     private void updateShortcuts() {
@@ -75,20 +120,33 @@ class ShortcutManager extends ContentObserver {
             return;
         }
 
-        mShortcutIntents.clear();
+        final HashMap<String, Intent> oldParsed = mParsedIntents;
+        final HashMap<String, Intent> parsed = new HashMap<String, Intent>();
+        SparseArray<Intent> shortcutIntents = new SparseArray<Intent>();
         while (c.moveToNext()) {
             int shortcut = c.getInt(COLUMN_SHORTCUT);
             if (shortcut == 0) continue;
             String intentURI = c.getString(COLUMN_INTENT);
-            Intent intent = null;
-            try {
-                intent = Intent.getIntent(intentURI);
-            } catch (URISyntaxException e) {
-                Log.w(TAG, "Intent URI for shortcut invalid.", e);
+            if (intentURI == null) continue;
+            Intent intent = parsed.get(intentURI);
+            if (intent == null) {
+                intent = oldParsed.get(intentURI);
             }
-            if (intent == null) continue;
-            mShortcutIntents.put(shortcut, intent);
+            if (intent == null) {
+                try {
+                    intent = Intent.getIntent(intentURI);
+                } catch (URISyntaxException e) {
+                    Log.w(TAG, "Intent URI for shortcut invalid.", e);
+                }
+                if (intent == null) continue;
+                // Shortcuts are always launched from outside of an activity.
+                intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            }
+            parsed.put(intentURI, intent);
+            shortcutIntents.put(shortcut, intent);
         }
+        mParsedIntents = parsed;
+        mShortcutIntents = shortcutIntents;
     }
     
     /**
@@ -103,18 +161,24 @@ class ShortcutManager extends ContentObserver {
      * @param keyCode The keycode of the key pushed.
      * @param modifiers The modifiers without any that are used for chording
      *            to invoke a shortcut.
-     * @return The intent that matches the shortcut, or null if not found.
+     * @return The intent that matches the shortcut, or null if not found.  The
+     *   intent already has {@link Intent#FLAG_ACTIVITY_NEW_TASK} set and is
+     *   shared, so it must not be modified.
      */
     public Intent getIntent(int keyCode, int modifiers) {
-        KeyCharacterMap kcm = KeyCharacterMap.load(KeyCharacterMap.BUILT_IN_KEYBOARD);
+        KeyCharacterMap kcm = mKeyCharacterMap;
+        if (kcm == null) {
+            kcm = mKeyCharacterMap = KeyCharacterMap.load(KeyCharacterMap.BUILT_IN_KEYBOARD);
+        }
+        final SparseArray<Intent> shortcutIntents = mShortcutIntents;
         // First try the exact keycode (with modifiers)
         int shortcut = kcm.get(keyCode, modifiers);
-        Intent intent = shortcut != 0 ? mShortcutIntents.get(shortcut) : null; 
+        Intent intent = shortcut != 0 ? shortcutIntents.get(shortcut) : null; 
         if (intent != null) return intent;
         
         // Next try the keycode without modifiers (the primary character on that key)
         shortcut = Character.toLowerCase(kcm.get(keyCode, 0));
-        return shortcut != 0 ? mShortcutIntents.get(shortcut) : null;
+        return shortcut != 0 ? shortcutIntents.get(shortcut) : null;
     }
 
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.policy.impl;
+
+import static android.view.WindowManager.LayoutParams.FIRST_SUB_WINDOW;
+import static android.view.WindowManager.LayoutParams.LAST_SUB_WINDOW;
+import static android.view.WindowManager.LayoutParams.LAST_SYSTEM_WINDOW;
+
+import java.io.PrintWriter;
+
+/**
+ * Dense lookup table from window type to layer and from sub-window type to
+ * sub-layer.  The table is filled once by asking a {@link LayerMapper} about
+ * every possible type, so lookups afterwards are a bounds check and an array
+ * read, and always agree with the mapping the table was built from.
+ */
+final class WindowLayerTable {
+    /**
+     * Returned for types the mapper does not know about.
+     */
+    static final int UNKNOWN = Integer.MIN_VALUE;
+
+    /**
+     * The policy's type-to-layer mapping, consulted only while building the
+     * table.
+     */
+    interface LayerMapper {
+        /**
+         * @return The layer for a top-level window of the given type, or
+         *   {@link WindowLayerTable#UNKNOWN}.
+         */
+        int mapWindowType(int type);
+
+        /**
+         * @return The sub-layer for a sub-window of the given type, or
+         *   {@link WindowLayerTable#UNKNOWN}.
+         */
+        int mapSubWindowType(int type);
+    }
+
+    // Indexed by window type, covering every type up to LAST_SYSTEM_WINDOW.
+    private final int[] mWindowLayers = new int[LAST_SYSTEM_WINDOW + 1];
+    // Indexed by (type - FIRST_SUB_WINDOW).
+    private final int[] mSubWindowLayers = new int[LAST_SUB_WINDOW - FIRST_SUB_WINDOW + 1];
+
+    WindowLayerTable(LayerMapper mapper) {
+        for (int type = 0; type < mWindowLayers.length; type++) {
+            mWindowLayers[type] = mapper.mapWindowType(type);
+        }
+        for (int i = 0; i < mSubWindowLayers.length; i++) {
+            mSubWindowLayers[i] = mapper.mapSubWindowType(FIRST_SUB_WINDOW + i);
+        }
+    }
+
+    /**
+     * @return The layer for a window of the given type, or {@link #UNKNOWN}.
+     */
+    int getWindowLayer(int type) {
+        if (type < 0 || type >= mWindowLayers.length) {
+            return UNKNOWN;
+        }
+        return mWindowLayers[type];
+    }
+
+    /**
+     * @return The sub-layer for a sub-window of the given type, or
+     *   {@link #UNKNOWN}.
+     */
+    int getSubWindowLayer(int type) {
+        final int index = type - FIRST_SUB_WINDOW;
+        if (index < 0 || index >= mSubWindowLayers.length) {
+            return UNKNOWN;
+        }
+        return mSubWindowLayers[index];
+    }
+
+    /**
+     * Print every known type and the layer it is assigned.
+     */
+    void dump(String prefix, PrintWriter pw) {
+        pw.print(prefix); pw.println("Window layers:");
+        for (int type = 0; type < mWindowLayers.length; type++) {
+            if (mWindowLayers[type] != UNKNOWN) {
+                pw.print(prefix); pw.print("  type="); pw.print(type);
+                        pw.print(" layer="); pw.println(mWindowLayers[type]);
+            }
+        }
+        pw.print(prefix); pw.println("Sub-window layers:");
+        for (int i = 0; i < mSubWindowLayers.length; i++) {
+            if (mSubWindowLayers[i] != UNKNOWN) {
+                pw.print(prefix); pw.print("  type="); pw.print(FIRST_SUB_WINDOW + i);
+                        pw.print(" sublayer="); pw.println(mSubWindowLayers[i]);
+            }
+        }
+    }
+}
@@ -6,8 +6,33 @@ include $(CLEAR_VARS)
 
 LOCAL_SRC_FILES := \
             $(call all-subdir-java-files)
+
+# The classes Policy preloads in the zygote.  Anonymous classes are
+# numbered by their order in the source, so they aren't allowed.
+ifneq ($(shell grep '\$$[0-9]' $(LOCAL_PATH)/preloaded-policy-classes),)
+$(error $(LOCAL_PATH)/preloaded-policy-classes: anonymous classes can't be preloaded)
+endif
+
+LOCAL_JAVA_RESOURCE_FILES := $(LOCAL_PATH)/preloaded-policy-classes
             
 LOCAL_MODULE := android.policy_phone
 LOCAL_UNINSTALLABLE_MODULE := true
 
 include $(BUILD_JAVA_LIBRARY)
+
+# Every preloaded class, inner classes included, must be in the compiled
+# classes.
+policy_preloaded_check := $(intermediates.COMMON)/preloaded-policy-classes.checked
+$(policy_preloaded_check): PRIVATE_LIST := $(LOCAL_PATH)/preloaded-policy-classes
+$(policy_preloaded_check): $(full_classes_jar) $(LOCAL_PATH)/preloaded-policy-classes
+	@echo "Check preloaded classes: $@"
+	$(hide) unzip -Z1 $< > $@.tmp
+	$(hide) missing=`sed -e '/^#/d' -e 's|\.|/|g' -e 's|$$|.class|' $(PRIVATE_LIST) \
+	        | grep -vxF -f $@.tmp`; \
+	    rm -f $@.tmp; \
+	    if [ -n "$$missing" ]; then \
+	        echo "$(PRIVATE_LIST): not compiled:" $$missing 1>&2; \
+	        exit 1; \
+	    fi
+	$(hide) touch $@
+$(LOCAL_BUILT_MODULE): $(policy_preloaded_check)
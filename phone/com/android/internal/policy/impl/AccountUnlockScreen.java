@@ -115,7 +115,7 @@ public class AccountUnlockScreen extends RelativeLayout implements KeyguardScree
         mLockPatternUtils.updateEmergencyCallButtonState(mEmergencyCall);
 
         mUpdateMonitor = updateMonitor;
-        mUpdateMonitor.registerInfoCallback(this);
+        mUpdateMonitor.registerInfoCallback(this, KeyguardUpdateMonitor.INFO_PHONE_STATE);
     }
 
     public void afterTextChanged(Editable s) {
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.policy.impl;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A set of callbacks, compared by identity, that can be walked while
+ * callbacks add or remove themselves.  Every change publishes a new list,
+ * so a walk over {@link #snapshot()} never sees the list shift under it;
+ * callbacks removed partway through a walk can be skipped by checking
+ * {@link #contains}, which doesn't search.
+ *
+ * Entries are never changed once published either; {@link #setInterests}
+ * replaces the callback's entry.  The exception is the timing each entry
+ * keeps of its callback for the dump, which is updated in place by the
+ * dispatching thread.
+ */
+final class CallbackRegistry<T> {
+
+    static final class Entry<T> {
+        final T callback;
+        // What the callback wants to hear about, for registries that care.
+        final int interests;
+        int dispatches;
+        long totalNanos;
+        long maxNanos;
+
+        Entry(T callback, int interests) {
+            this.callback = callback;
+            this.interests = interests;
+        }
+
+        /**
+         * Count one dispatch to this callback that started at startNanos.
+         */
+        void record(long startNanos) {
+            final long nanos = System.nanoTime() - startNanos;
+            dispatches++;
+            totalNanos += nanos;
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+            }
+        }
+    }
+
+    private final String mName;
+
+    // Never modified once published, only replaced (under this).
+    private volatile List<Entry<T>> mEntries = new ArrayList<Entry<T>>();
+    private volatile IdentityHashMap<T, Entry<T>> mIndex = new IdentityHashMap<T, Entry<T>>();
+
+    CallbackRegistry(String name) {
+        mName = name;
+    }
+
+    /**
+     * @return false if the callback was already registered.
+     */
+    synchronized boolean add(T callback) {
+        return add(callback, ~0);
+    }
+
+    /**
+     * @param interests Stored in the callback's {@link Entry}.
+     * @return false if the callback was already registered.
+     */
+    synchronized boolean add(T callback, int interests) {
+        if (mIndex.containsKey(callback)) {
+            return false;
+        }
+        final Entry<T> entry = new Entry<T>(callback, interests);
+        final ArrayList<Entry<T>> entries = new ArrayList<Entry<T>>(mEntries.size() + 1);
+        entries.addAll(mEntries);
+        entries.add(entry);
+        final IdentityHashMap<T, Entry<T>> index = new IdentityHashMap<T, Entry<T>>(mIndex);
+        index.put(callback, entry);
+        mIndex = index;
+        mEntries = entries;
+        return true;
+    }
+
+    /**
+     * @return false if the callback wasn't registered.
+     */
+    synchronized boolean remove(Object callback) {
+        final Entry<T> entry = mIndex.get(callback);
+        if (entry == null) {
+            return false;
+        }
+        final ArrayList<Entry<T>> entries = new ArrayList<Entry<T>>(mEntries);
+        entries.remove(entry);
+        final IdentityHashMap<T, Entry<T>> index = new IdentityHashMap<T, Entry<T>>(mIndex);
+        index.remove(callback);
+        mIndex = index;
+        mEntries = entries;
+        return true;
+    }
+
+    /**
+     * Change what the callback is interested in, by publishing a copy of
+     * its entry with the new interests.
+     *
+     * @return false if the callback wasn't registered.
+     */
+    synchronized boolean setInterests(Object callback, int interests) {
+        final Entry<T> old = mIndex.get(callback);
+        if (old == null) {
+            return false;
+        }
+        final Entry<T> entry = new Entry<T>(old.callback, interests);
+        entry.dispatches = old.dispatches;
+        entry.totalNanos = old.totalNanos;
+        entry.maxNanos = old.maxNanos;
+        final ArrayList<Entry<T>> entries = new ArrayList<Entry<T>>(mEntries);
+        entries.set(entries.indexOf(old), entry);
+        final IdentityHashMap<T, Entry<T>> index = new IdentityHashMap<T, Entry<T>>(mIndex);
+        index.put(old.callback, entry);
+        mIndex = index;
+        mEntries = entries;
+        return true;
+    }
+
+    boolean contains(Object callback) {
+        return mIndex.containsKey(callback);
+    }
+
+    /**
+     * @return The callback's entry, or null if it isn't registered.
+     */
+    Entry<T> get(Object callback) {
+        return mIndex.get(callback);
+    }
+
+    /**
+     * @return The current callbacks, in registration order.  The list is
+     *   not changed by later registrations or removals, and must not be
+     *   modified.
+     */
+    List<Entry<T>> snapshot() {
+        return mEntries;
+    }
+
+    void dump(String prefix, PrintWriter pw) {
+        final List<Entry<T>> entries = mEntries;
+        pw.print(prefix); pw.print(mName); pw.print(": "); pw.print(entries.size());
+                pw.println(" registered");
+        for (int i = 0; i < entries.size(); i++) {
+            final Entry<T> entry = entries.get(i);
+            pw.print(prefix); pw.print("  ");
+                    pw.print(entry.callback.getClass().getName());
+                    pw.print("@"); pw.print(Integer.toHexString(
+                            System.identityHashCode(entry.callback)));
+                    pw.print(" interests=0x"); pw.print(Integer.toHexString(entry.interests));
+                    pw.print(" dispatches="); pw.print(entry.dispatches);
+                    pw.print(" avgUs=");
+                    pw.print(entry.dispatches != 0
+                            ? entry.totalNanos / entry.dispatches / 1000 : 0);
+                    pw.print(" maxUs="); pw.println(entry.maxNanos / 1000);
+        }
+    }
+}
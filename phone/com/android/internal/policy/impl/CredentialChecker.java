@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.policy.impl;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.android.internal.widget.LockPatternUtils;
+import com.android.internal.widget.LockPatternView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks an unlock pattern or password against the stored one on a
+ * background thread, since {@link LockPatternUtils} hashes the attempt and
+ * reads the stored hash from flash, which can take long enough to freeze
+ * the unlock screen.  The result is delivered on the thread that created
+ * the checker.
+ *
+ * Only one check runs per checker at a time; the unlock screens disable
+ * their input while {@link #isChecking()} so there is nothing to queue.
+ */
+final class CredentialChecker {
+    private static final String TAG = "CredentialChecker";
+
+    interface OnCheckedListener {
+        /**
+         * Called on the thread that created the checker once the attempt has been checked.
+         */
+        void onChecked(boolean matched);
+    }
+
+    // Shared by every unlock screen, as they come and go with orientation
+    // and keyboard changes.
+    private static Handler sWorker;
+
+    private final LockPatternUtils mLockPatternUtils;
+    private final Handler mHandler = new Handler();
+    private boolean mChecking;
+
+    CredentialChecker(LockPatternUtils lockPatternUtils) {
+        mLockPatternUtils = lockPatternUtils;
+    }
+
+    private static synchronized Handler getWorker() {
+        if (sWorker == null) {
+            HandlerThread thread = new HandlerThread("KeyguardCredentials",
+                    Process.THREAD_PRIORITY_FOREGROUND);
+            thread.start();
+            sWorker = new Handler(thread.getLooper());
+        }
+        return sWorker;
+    }
+
+    boolean isChecking() {
+        return mChecking;
+    }
+
+    void checkPattern(List<LockPatternView.Cell> pattern, OnCheckedListener listener) {
+        // the view reuses its list for the next pattern
+        final List<LockPatternView.Cell> copy = new ArrayList<LockPatternView.Cell>(pattern);
+        check(new Check(listener) {
+            boolean matches() {
+                return mLockPatternUtils.checkPattern(copy);
+            }
+        });
+    }
+
+    void checkPassword(final String password, OnCheckedListener listener) {
+        check(new Check(listener) {
+            boolean matches() {
+                return mLockPatternUtils.checkPassword(password);
+            }
+        });
+    }
+
+    private void check(Check check) {
+        if (mChecking) {
+            throw new IllegalStateException("already checking a credential");
+        }
+        mChecking = true;
+        getWorker().post(check);
+    }
+
+    private abstract class Check implements Runnable {
+        private final OnCheckedListener mListener;
+
+        Check(OnCheckedListener listener) {
+            mListener = listener;
+        }
+
+        abstract boolean matches();
+
+        public void run() {
+            boolean result = false;
+            try {
+                result = matches();
+            } catch (RuntimeException e) {
+                // this thread is in the system process; count it as a
+                // mismatch rather than take the process down
+                Log.e(TAG, "credential check failed", e);
+            }
+            final boolean matched = result;
+            mHandler.post(new Runnable() {
+                public void run() {
+                    mChecking = false;
+                    mListener.onChecked(matched);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.policy.impl;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Timestamps the stages the keyguard goes through on its way to the
+ * screen, from the screen turning off to the first frame of the keyguard
+ * being drawn, and keeps the last {@link #HISTORY} complete traces in a
+ * ring buffer.  Also keeps the last hold times of the wake locks that
+ * keep the device up along the way.
+ *
+ * Stages can be marked from any thread.
+ */
+final class KeyguardShowTrace {
+    static final int STAGE_SCREEN_OFF = 0;
+    static final int STAGE_DO_KEYGUARD = 1;
+    static final int STAGE_SHOW_LOCKED = 2;
+    static final int STAGE_HANDLE_SHOW = 3;
+    static final int STAGE_VIEW_SHOWN = 4;
+    static final int STAGE_DONE_DRAWING = 5;
+    private static final int STAGES = 6;
+
+    private static final String[] STAGE_NAMES = {
+        "screenOff", "doKeyguard", "showLocked", "handleShow", "viewShown", "doneDrawing",
+    };
+
+    static final int WAKE_LOCK_SHOW_KEYGUARD = 0;
+    static final int WAKE_LOCK_WAKE_AND_HAND_OFF = 1;
+    private static final int WAKE_LOCKS = 2;
+
+    private static final String[] WAKE_LOCK_NAMES = {
+        "mShowKeyguardWakeLock", "mWakeAndHandOff",
+    };
+
+    static final int HISTORY = 32;
+
+    // elapsedRealtime of each stage of the trace in progress, 0 if not
+    // reached (yet)
+    private final long[] mCurrent = new long[STAGES];
+    private boolean mTracing;
+
+    // completed traces, mHistory[i * STAGES + stage]
+    private final long[] mHistory = new long[HISTORY * STAGES];
+    private int mHistoryNext;
+    private int mHistoryCount;
+
+    private final long[] mAcquired = new long[WAKE_LOCKS];
+    private final long[] mHeld = new long[WAKE_LOCKS * HISTORY];
+    private final int[] mHeldNext = new int[WAKE_LOCKS];
+    private final int[] mHeldCount = new int[WAKE_LOCKS];
+
+    /**
+     * Note that a stage was reached.  {@link #STAGE_SCREEN_OFF} starts a new
+     * trace, as does {@link #STAGE_DO_KEYGUARD} if none is in progress (the
+     * keyguard can come up without the screen going off).  Later stages are
+     * only recorded once, the first time they are reached, and
+     * {@link #STAGE_DONE_DRAWING} is only taken once the view is shown, as
+     * the keyguard draws many frames.
+     */
+    synchronized void mark(int stage) {
+        if (stage == STAGE_SCREEN_OFF || (stage == STAGE_DO_KEYGUARD && !mTracing)) {
+            Arrays.fill(mCurrent, 0);
+            mTracing = true;
+        } else if (!mTracing || mCurrent[stage] != 0
+                || (stage == STAGE_DONE_DRAWING && mCurrent[STAGE_VIEW_SHOWN] == 0)) {
+            return;
+        }
+        mCurrent[stage] = SystemClock.elapsedRealtime();
+
+        if (stage == STAGE_DONE_DRAWING) {
+            System.arraycopy(mCurrent, 0, mHistory, mHistoryNext * STAGES, STAGES);
+            mHistoryNext = (mHistoryNext + 1) % HISTORY;
+            if (mHistoryCount < HISTORY) {
+                mHistoryCount++;
+            }
+            mTracing = false;
+        }
+    }
+
+    synchronized void wakeLockAcquired(int which) {
+        if (mAcquired[which] == 0) {
+            mAcquired[which] = SystemClock.elapsedRealtime();
+        }
+    }
+
+    synchronized void wakeLockReleased(int which) {
+        if (mAcquired[which] == 0) {
+            return;
+        }
+        mHeld[which * HISTORY + mHeldNext[which]] =
+                SystemClock.elapsedRealtime() - mAcquired[which];
+        mAcquired[which] = 0;
+        mHeldNext[which] = (mHeldNext[which] + 1) % HISTORY;
+        if (mHeldCount[which] < HISTORY) {
+            mHeldCount[which]++;
+        }
+    }
+
+    /**
+     * Print, for each stage, the percentiles over the recorded traces of the
+     * time from the previous stage that was reached, then the same for the
+     * whole trace and for the wake lock hold times.
+     */
+    synchronized void dump(String prefix, PrintWriter pw) {
+        pw.print(prefix); pw.print("Keyguard show traces: "); pw.print(mHistoryCount);
+                pw.println(" (ms, p50/p90/max)");
+        final long[] samples = new long[HISTORY];
+        for (int stage = 1; stage < STAGES; stage++) {
+            int n = 0;
+            for (int i = 0; i < mHistoryCount; i++) {
+                final int base = i * STAGES;
+                if (mHistory[base + stage] == 0) {
+                    continue;
+                }
+                for (int prev = stage - 1; prev >= 0; prev--) {
+                    if (mHistory[base + prev] != 0) {
+                        samples[n++] = mHistory[base + stage] - mHistory[base + prev];
+                        break;
+                    }
+                }
+            }
+            dumpPercentiles(prefix + "  ", STAGE_NAMES[stage], samples, n, pw);
+        }
+        int n = 0;
+        for (int i = 0; i < mHistoryCount; i++) {
+            final int base = i * STAGES;
+            final long start = mHistory[base + STAGE_SCREEN_OFF] != 0
+                    ? mHistory[base + STAGE_SCREEN_OFF] : mHistory[base + STAGE_DO_KEYGUARD];
+            if (start != 0) {
+                samples[n++] = mHistory[base + STAGE_DONE_DRAWING] - start;
+            }
+        }
+        dumpPercentiles(prefix + "  ", "total", samples, n, pw);
+
+        pw.print(prefix); pw.println("Wake lock hold times (ms, p50/p90/max)");
+        for (int which = 0; which < WAKE_LOCKS; which++) {
+            System.arraycopy(mHeld, which * HISTORY, samples, 0, mHeldCount[which]);
+            dumpPercentiles(prefix + "  ", WAKE_LOCK_NAMES[which], samples,
+                    mHeldCount[which], pw);
+        }
+    }
+
+    private static void dumpPercentiles(String prefix, String name, long[] samples, int n,
+            PrintWriter pw) {
+        pw.print(prefix); pw.print(name); pw.print(": ");
+        if (n == 0) {
+            pw.println("-");
+            return;
+        }
+        Arrays.sort(samples, 0, n);
+        pw.print(samples[(n - 1) / 2]); pw.print("/");
+                pw.print(samples[(n - 1) * 9 / 10]); pw.print("/");
+                pw.print(samples[n - 1]);
+                pw.print(" n="); pw.println(n);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.policy.impl;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.os.Handler;
+import android.provider.Settings;
+import android.util.Log;
+
+/**
+ * The lock and unlock sound effects, decoded ahead of time into a
+ * {@link SoundPool} so that playing one is a single call that doesn't touch
+ * the settings provider or the file system.  The sounds are reloaded when
+ * the settings that pick them change.
+ */
+final class KeyguardSounds {
+    private static final String TAG = "KeyguardSounds";
+    private static final boolean DEBUG = false;
+
+    private final ContentResolver mResolver;
+    private final SoundPool mSoundPool = new SoundPool(1, AudioManager.STREAM_SYSTEM, 0);
+
+    // protected by this
+    private boolean mEnabled;
+    private String mLockSoundPath;
+    private String mUnlockSoundPath;
+    private int mLockSoundId;
+    private int mUnlockSoundId;
+
+    /**
+     * @param handler Settings changes are handled on this handler's thread.
+     */
+    KeyguardSounds(Context context, Handler handler) {
+        mResolver = context.getContentResolver();
+        final ContentObserver observer = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                update();
+            }
+        };
+        mResolver.registerContentObserver(
+                Settings.System.getUriFor(Settings.System.LOCKSCREEN_SOUNDS_ENABLED),
+                false, observer);
+        mResolver.registerContentObserver(
+                Settings.System.getUriFor(Settings.System.LOCK_SOUND), false, observer);
+        mResolver.registerContentObserver(
+                Settings.System.getUriFor(Settings.System.UNLOCK_SOUND), false, observer);
+        update();
+    }
+
+    /**
+     * Re-read the settings, and load whichever sound has changed.  The pool
+     * decodes on its own thread, so this doesn't wait for the decoding.
+     */
+    synchronized void update() {
+        mEnabled = Settings.System.getInt(mResolver,
+                Settings.System.LOCKSCREEN_SOUNDS_ENABLED, 1) == 1;
+
+        final String lockSoundPath = Settings.System.getString(mResolver,
+                Settings.System.LOCK_SOUND);
+        if (!equals(lockSoundPath, mLockSoundPath)) {
+            mLockSoundPath = lockSoundPath;
+            mLockSoundId = load(lockSoundPath, mLockSoundId);
+        }
+        final String unlockSoundPath = Settings.System.getString(mResolver,
+                Settings.System.UNLOCK_SOUND);
+        if (!equals(unlockSoundPath, mUnlockSoundPath)) {
+            mUnlockSoundPath = unlockSoundPath;
+            mUnlockSoundId = load(unlockSoundPath, mUnlockSoundId);
+        }
+    }
+
+    private int load(String path, int oldSoundId) {
+        if (oldSoundId != 0) {
+            mSoundPool.unload(oldSoundId);
+        }
+        if (path == null) {
+            if (DEBUG) Log.d(TAG, "no sound set");
+            return 0;
+        }
+        final int soundId = mSoundPool.load(path, 1);
+        if (soundId == 0) {
+            Log.w(TAG, "failed to load sound from " + path);
+        }
+        return soundId;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Play the lock or unlock sound, if sounds are enabled and it has been
+     * loaded.  Doesn't block.
+     */
+    void play(boolean locked) {
+        final int soundId;
+        synchronized (this) {
+            if (!mEnabled) {
+                return;
+            }
+            soundId = locked ? mLockSoundId : mUnlockSoundId;
+        }
+        if (soundId == 0) {
+            if (DEBUG) Log.d(TAG, "play: no " + (locked ? "lock" : "unlock") + " sound loaded");
+            return;
+        }
+        mSoundPool.play(soundId, 1.0f, 1.0f, 1, 0, 1.0f);
+    }
+}
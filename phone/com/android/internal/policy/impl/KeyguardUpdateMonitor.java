@@ -43,9 +43,9 @@ import com.android.internal.telephony.TelephonyIntents;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 import com.android.internal.R;
-import com.google.android.collect.Lists;
 
-import java.util.ArrayList;
+import java.io.PrintWriter;
+import java.util.List;
 
 /**
  * Watches for updates that may be interesting to the keyguard, and provides
@@ -79,12 +79,18 @@ public class KeyguardUpdateMonitor {
     private CharSequence mTelephonyPlmn;
     private CharSequence mTelephonySpn;
 
+    // Written by the receiver as soon as the broadcast arrives, read from
+    // the input thread via getPhoneState(), so it must not wait for the handler.
+    private volatile String mPhoneState = TelephonyManager.EXTRA_STATE_IDLE;
+
     private int mFailedAttempts = 0;
 
     private Handler mHandler;
 
-    private ArrayList<InfoCallback> mInfoCallbacks = Lists.newArrayList();
-    private ArrayList<SimStateCallback> mSimStateCallbacks = Lists.newArrayList();
+    private final CallbackRegistry<InfoCallback> mInfoCallbacks =
+            new CallbackRegistry<InfoCallback>("Info callbacks");
+    private final CallbackRegistry<SimStateCallback> mSimStateCallbacks =
+            new CallbackRegistry<SimStateCallback>("SIM state callbacks");
     private ContentObserver mContentObserver;
 
     // messages for the handler
@@ -94,6 +100,63 @@ public class KeyguardUpdateMonitor {
     private static final int MSG_SIM_STATE_CHANGE = 304;
     private static final int MSG_RINGER_MODE_CHANGED = 305;
     private static final int MSG_PHONE_STATE_CHANGED = 306;
+    private static final int MSG_INFO_BATCH = 307;
+
+    // Info broadcasts arriving within this long of each other are delivered
+    // to the callbacks as one batch.  About a frame, so nothing visibly lags.
+    private static final int INFO_BATCH_DELAY_MS = 16;
+
+    // One bit per kind of InfoCallback update, used both for what changed
+    // and for what a callback is interested in.
+    static final int INFO_TIME = 1 << 0;
+    static final int INFO_BATTERY = 1 << 1;
+    static final int INFO_CARRIER = 1 << 2;
+    static final int INFO_RINGER_MODE = 1 << 3;
+    static final int INFO_PHONE_STATE = 1 << 4;
+    static final int INFO_ALL = INFO_TIME | INFO_BATTERY | INFO_CARRIER | INFO_RINGER_MODE
+            | INFO_PHONE_STATE;
+
+    // Kinds of info whose broadcasts we only listen for while some callback
+    // is interested.  Battery and carrier info are always tracked because
+    // the screens read them through the getters when they are created, and
+    // phone state because the mediator asks for it.
+    private static final int INFO_ON_DEMAND = INFO_TIME | INFO_RINGER_MODE;
+
+    private final BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
+        public void onReceive(Context context, Intent intent) {
+            handleBroadcast(intent);
+        }
+    };
+
+    // One receiver per INFO_ON_DEMAND kind, registered separately so each
+    // can come and go with the callbacks' interests without touching the
+    // broadcasts we always need, or the other kind.  The time one comes and
+    // goes with every screen on and off; re-registering for the sticky
+    // ringer mode broadcast along with it would redeliver it each time.
+    private final BroadcastReceiver mTimeReceiver = new BroadcastReceiver() {
+        public void onReceive(Context context, Intent intent) {
+            handleBroadcast(intent);
+        }
+    };
+
+    private final BroadcastReceiver mRingerModeReceiver = new BroadcastReceiver() {
+        public void onReceive(Context context, Intent intent) {
+            handleBroadcast(intent);
+        }
+    };
+
+    // The INFO_ON_DEMAND bits whose receivers are registered.
+    private int mOnDemandRegistered;
+
+    // What changed since the last batch went out, and the latest value of
+    // each; earlier values from the same batch are simply overwritten.
+    // Only touched on the handler's thread: the receivers run on the main
+    // thread and pass the values along in messages.
+    private int mPendingInfo;
+    private int mPendingBatteryStatus;
+    private int mPendingBatteryLevel;
+    private int mPendingRingerMode;
+    private String mPendingPhoneState;
 
 
     /**
@@ -146,22 +209,32 @@ public class KeyguardUpdateMonitor {
             public void handleMessage(Message msg) {
                 switch (msg.what) {
                     case MSG_TIME_UPDATE:
-                        handleTimeUpdate();
+                        scheduleInfo(INFO_TIME);
                         break;
                     case MSG_BATTERY_UPDATE:
-                        handleBatteryUpdate(msg.arg1,  msg.arg2);
+                        mPendingBatteryStatus = msg.arg1;
+                        mPendingBatteryLevel = msg.arg2;
+                        scheduleInfo(INFO_BATTERY);
                         break;
                     case MSG_CARRIER_INFO_UPDATE:
-                        handleCarrierInfoUpdate();
+                        final CharSequence[] carrier = (CharSequence[]) msg.obj;
+                        mTelephonyPlmn = carrier[0];
+                        mTelephonySpn = carrier[1];
+                        scheduleInfo(INFO_CARRIER);
                         break;
                     case MSG_SIM_STATE_CHANGE:
                         handleSimStateChange((SimArgs) msg.obj);
                         break;
                     case MSG_RINGER_MODE_CHANGED:
-                        handleRingerModeChange(msg.arg1);
+                        mPendingRingerMode = msg.arg1;
+                        scheduleInfo(INFO_RINGER_MODE);
                         break;
                     case MSG_PHONE_STATE_CHANGED:
-                        handlePhoneStateChanged((String)msg.obj);
+                        mPendingPhoneState = (String) msg.obj;
+                        scheduleInfo(INFO_PHONE_STATE);
+                        break;
+                    case MSG_INFO_BATCH:
+                        handleInfoBatch();
                         break;
                 }
             }
@@ -208,105 +281,175 @@ public class KeyguardUpdateMonitor {
 
         mTelephonyPlmn = getDefaultPlmn();
 
-        // setup receiver
+        // setup receiver; the time and ringer broadcasts are added by
+        // updateOnDemandReceiver() once someone needs them
         final IntentFilter filter = new IntentFilter();
-        filter.addAction(Intent.ACTION_TIME_TICK);
-        filter.addAction(Intent.ACTION_TIME_CHANGED);
         filter.addAction(Intent.ACTION_BATTERY_CHANGED);
-        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
         filter.addAction(TelephonyIntents.ACTION_SIM_STATE_CHANGED);
         filter.addAction(TelephonyManager.ACTION_PHONE_STATE_CHANGED);
         filter.addAction(SPN_STRINGS_UPDATED_ACTION);
-        filter.addAction(AudioManager.RINGER_MODE_CHANGED_ACTION);
-        context.registerReceiver(new BroadcastReceiver() {
-
-            public void onReceive(Context context, Intent intent) {
-                final String action = intent.getAction();
-                if (DEBUG) Log.d(TAG, "received broadcast " + action);
-
-                if (Intent.ACTION_TIME_TICK.equals(action)
-                        || Intent.ACTION_TIME_CHANGED.equals(action)
-                        || Intent.ACTION_TIMEZONE_CHANGED.equals(action)) {
-                    mHandler.sendMessage(mHandler.obtainMessage(MSG_TIME_UPDATE));
-                } else if (SPN_STRINGS_UPDATED_ACTION.equals(action)) {
-                    mTelephonyPlmn = getTelephonyPlmnFrom(intent);
-                    mTelephonySpn = getTelephonySpnFrom(intent);
-                    mHandler.sendMessage(mHandler.obtainMessage(MSG_CARRIER_INFO_UPDATE));
-                } else if (Intent.ACTION_BATTERY_CHANGED.equals(action)) {
-                    final int pluggedInStatus = intent
-                            .getIntExtra("status", BATTERY_STATUS_UNKNOWN);
-                    int batteryLevel = intent.getIntExtra("level", 0);
-                    final Message msg = mHandler.obtainMessage(
-                            MSG_BATTERY_UPDATE,
-                            pluggedInStatus,
-                            batteryLevel);
-                    mHandler.sendMessage(msg);
-                } else if (TelephonyIntents.ACTION_SIM_STATE_CHANGED.equals(action)) {
-                    mHandler.sendMessage(mHandler.obtainMessage(
-                            MSG_SIM_STATE_CHANGE,
-                            new SimArgs(intent)));
-                } else if (AudioManager.RINGER_MODE_CHANGED_ACTION.equals(action)) {
-                    mHandler.sendMessage(mHandler.obtainMessage(MSG_RINGER_MODE_CHANGED,
-                            intent.getIntExtra(AudioManager.EXTRA_RINGER_MODE, -1), 0));
-                } else if (TelephonyManager.ACTION_PHONE_STATE_CHANGED.equals(action)) {
-                    String state = intent.getStringExtra(TelephonyManager.EXTRA_STATE);
-                    mHandler.sendMessage(mHandler.obtainMessage(MSG_PHONE_STATE_CHANGED, state));
-                }
-            }
-        }, filter);
+        context.registerReceiver(mBroadcastReceiver, filter);
     }
 
-    protected void handlePhoneStateChanged(String newState) {
-        if (DEBUG) Log.d(TAG, "handlePhoneStateChanged(" + newState + ")");
-        for (int i = 0; i < mInfoCallbacks.size(); i++) {
-            mInfoCallbacks.get(i).onPhoneStateChanged(newState);
+    /**
+     * Called from the receivers on the main thread, which isn't the
+     * handler's, so everything but the phone state snapshot is handed to
+     * the handler in a message.
+     */
+    private void handleBroadcast(Intent intent) {
+        final String action = intent.getAction();
+        if (DEBUG) Log.d(TAG, "received broadcast " + action);
+
+        if (Intent.ACTION_TIME_TICK.equals(action)
+                || Intent.ACTION_TIME_CHANGED.equals(action)
+                || Intent.ACTION_TIMEZONE_CHANGED.equals(action)) {
+            mHandler.sendMessage(mHandler.obtainMessage(MSG_TIME_UPDATE));
+        } else if (SPN_STRINGS_UPDATED_ACTION.equals(action)) {
+            mHandler.sendMessage(mHandler.obtainMessage(MSG_CARRIER_INFO_UPDATE,
+                    new CharSequence[] {
+                        getTelephonyPlmnFrom(intent), getTelephonySpnFrom(intent)
+                    }));
+        } else if (Intent.ACTION_BATTERY_CHANGED.equals(action)) {
+            final int pluggedInStatus = intent
+                    .getIntExtra("status", BATTERY_STATUS_UNKNOWN);
+            int batteryLevel = intent.getIntExtra("level", 0);
+            mHandler.sendMessage(mHandler.obtainMessage(
+                    MSG_BATTERY_UPDATE,
+                    pluggedInStatus,
+                    batteryLevel));
+        } else if (TelephonyIntents.ACTION_SIM_STATE_CHANGED.equals(action)) {
+            mHandler.sendMessage(mHandler.obtainMessage(
+                    MSG_SIM_STATE_CHANGE,
+                    new SimArgs(intent)));
+        } else if (AudioManager.RINGER_MODE_CHANGED_ACTION.equals(action)) {
+            mHandler.sendMessage(mHandler.obtainMessage(MSG_RINGER_MODE_CHANGED,
+                    intent.getIntExtra(AudioManager.EXTRA_RINGER_MODE, -1), 0));
+        } else if (TelephonyManager.ACTION_PHONE_STATE_CHANGED.equals(action)) {
+            String state = intent.getStringExtra(TelephonyManager.EXTRA_STATE);
+            if (state != null) {
+                mPhoneState = state;
+            }
+            mHandler.sendMessage(mHandler.obtainMessage(MSG_PHONE_STATE_CHANGED, state));
         }
     }
 
-    protected void handleRingerModeChange(int mode) {
-        if (DEBUG) Log.d(TAG, "handleRingerModeChange(" + mode + ")");
-        for (int i = 0; i < mInfoCallbacks.size(); i++) {
-            mInfoCallbacks.get(i).onRingerModeChanged(mode);
+    /**
+     * Register or unregister {@link #mTimeReceiver} and
+     * {@link #mRingerModeReceiver} for the broadcasts the callbacks are
+     * currently interested in, if that has changed.
+     */
+    private void updateOnDemandReceiver() {
+        int wanted = 0;
+        final List<CallbackRegistry.Entry<InfoCallback>> callbacks = mInfoCallbacks.snapshot();
+        for (int i = 0; i < callbacks.size(); i++) {
+            wanted |= callbacks.get(i).interests;
+        }
+        wanted &= INFO_ON_DEMAND;
+        if (wanted == mOnDemandRegistered) {
+            return;
+        }
+        if (DEBUG) Log.d(TAG, "on demand broadcasts 0x" + Integer.toHexString(wanted));
+
+        final int changed = wanted ^ mOnDemandRegistered;
+        mOnDemandRegistered = wanted;
+        if ((changed & INFO_TIME) != 0) {
+            if ((wanted & INFO_TIME) != 0) {
+                final IntentFilter filter = new IntentFilter();
+                filter.addAction(Intent.ACTION_TIME_TICK);
+                filter.addAction(Intent.ACTION_TIME_CHANGED);
+                filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+                mContext.registerReceiver(mTimeReceiver, filter);
+            } else {
+                mContext.unregisterReceiver(mTimeReceiver);
+            }
+        }
+        if ((changed & INFO_RINGER_MODE) != 0) {
+            if ((wanted & INFO_RINGER_MODE) != 0) {
+                mContext.registerReceiver(mRingerModeReceiver,
+                        new IntentFilter(AudioManager.RINGER_MODE_CHANGED_ACTION));
+            } else {
+                mContext.unregisterReceiver(mRingerModeReceiver);
+            }
         }
     }
 
     /**
-     * Handle {@link #MSG_TIME_UPDATE}
+     * Mark the given kinds of info as changed, and make sure a batch is on
+     * its way.  Must be called on the handler's thread.
      */
-    private void handleTimeUpdate() {
-        if (DEBUG) Log.d(TAG, "handleTimeUpdate");
-        for (int i = 0; i < mInfoCallbacks.size(); i++) {
-            mInfoCallbacks.get(i).onTimeChanged();
+    private void scheduleInfo(int what) {
+        if (mPendingInfo == 0) {
+            mHandler.sendEmptyMessageDelayed(MSG_INFO_BATCH, INFO_BATCH_DELAY_MS);
         }
+        mPendingInfo |= what;
     }
 
     /**
-     * Handle {@link #MSG_BATTERY_UPDATE}
+     * Handle {@link #MSG_INFO_BATCH}: tell each callback about everything
+     * that changed since the last batch, in one pass over the callbacks.
      */
-    private void handleBatteryUpdate(int pluggedInStatus, int batteryLevel) {
-        if (DEBUG) Log.d(TAG, "handleBatteryUpdate");
-        final boolean pluggedIn = isPluggedIn(pluggedInStatus);
+    private void handleInfoBatch() {
+        int what = mPendingInfo;
+        mPendingInfo = 0;
+        if (DEBUG) Log.d(TAG, "handleInfoBatch(0x" + Integer.toHexString(what) + ")");
+
+        if ((what & INFO_BATTERY) != 0
+                && !handleBatteryUpdate(mPendingBatteryStatus, mPendingBatteryLevel)) {
+            what &= ~INFO_BATTERY;
+        }
+        if (what == 0) {
+            return;
+        }
 
-        if (isBatteryUpdateInteresting(pluggedIn, batteryLevel)) {
-            mBatteryLevel = batteryLevel;
-            mDevicePluggedIn = pluggedIn;
-            for (int i = 0; i < mInfoCallbacks.size(); i++) {
-                mInfoCallbacks.get(i).onRefreshBatteryInfo(
-                        shouldShowBatteryInfo(), pluggedIn, batteryLevel);
+        final boolean showBatteryInfo = shouldShowBatteryInfo();
+        final int ringerMode = mPendingRingerMode;
+        final String phoneState = mPendingPhoneState;
+        final List<CallbackRegistry.Entry<InfoCallback>> callbacks = mInfoCallbacks.snapshot();
+        for (int i = 0; i < callbacks.size(); i++) {
+            final CallbackRegistry.Entry<InfoCallback> entry = callbacks.get(i);
+            final InfoCallback callback = entry.callback;
+            if (!mInfoCallbacks.contains(callback)) {
+                // removed by one of the callbacks before it
+                continue;
+            }
+            final int changed = what & entry.interests;
+            if (changed == 0) {
+                continue;
+            }
+            final long start = System.nanoTime();
+            if ((changed & INFO_BATTERY) != 0) {
+                callback.onRefreshBatteryInfo(showBatteryInfo, mDevicePluggedIn, mBatteryLevel);
             }
+            if ((changed & INFO_TIME) != 0) {
+                callback.onTimeChanged();
+            }
+            if ((changed & INFO_CARRIER) != 0) {
+                callback.onRefreshCarrierInfo(mTelephonyPlmn, mTelephonySpn);
+            }
+            if ((changed & INFO_RINGER_MODE) != 0) {
+                callback.onRingerModeChanged(ringerMode);
+            }
+            if ((changed & INFO_PHONE_STATE) != 0) {
+                callback.onPhoneStateChanged(phoneState);
+            }
+            entry.record(start);
         }
     }
 
     /**
-     * Handle {@link #MSG_CARRIER_INFO_UPDATE}
+     * Take in the latest battery status.
+     * @return Whether it changed enough for the callbacks to hear about it.
      */
-    private void handleCarrierInfoUpdate() {
-        if (DEBUG) Log.d(TAG, "handleCarrierInfoUpdate: plmn = " + mTelephonyPlmn
-            + ", spn = " + mTelephonySpn);
+    private boolean handleBatteryUpdate(int pluggedInStatus, int batteryLevel) {
+        if (DEBUG) Log.d(TAG, "handleBatteryUpdate");
+        final boolean pluggedIn = isPluggedIn(pluggedInStatus);
 
-        for (int i = 0; i < mInfoCallbacks.size(); i++) {
-            mInfoCallbacks.get(i).onRefreshCarrierInfo(mTelephonyPlmn, mTelephonySpn);
+        if (isBatteryUpdateInteresting(pluggedIn, batteryLevel)) {
+            mBatteryLevel = batteryLevel;
+            mDevicePluggedIn = pluggedIn;
+            return true;
         }
+        return false;
     }
 
     /**
@@ -322,8 +465,16 @@ public class KeyguardUpdateMonitor {
 
         if (state != IccCard.State.UNKNOWN && state != mSimState) {
             mSimState = state;
-            for (int i = 0; i < mSimStateCallbacks.size(); i++) {
-                mSimStateCallbacks.get(i).onSimStateChanged(state);
+            final List<CallbackRegistry.Entry<SimStateCallback>> callbacks =
+                    mSimStateCallbacks.snapshot();
+            for (int i = 0; i < callbacks.size(); i++) {
+                final CallbackRegistry.Entry<SimStateCallback> entry = callbacks.get(i);
+                if (!mSimStateCallbacks.contains(entry.callback)) {
+                    continue;
+                }
+                final long start = System.nanoTime();
+                entry.callback.onSimStateChanged(state);
+                entry.record(start);
             }
         }
     }
@@ -401,7 +552,9 @@ public class KeyguardUpdateMonitor {
      *   {@link InfoCallback} or {@link SimStateCallback}
      */
     public void removeCallback(Object observer) {
-        mInfoCallbacks.remove(observer);
+        if (mInfoCallbacks.remove(observer)) {
+            updateOnDemandReceiver();
+        }
         mSimStateCallbacks.remove(observer);
     }
 
@@ -448,11 +601,36 @@ public class KeyguardUpdateMonitor {
      * @param callback The callback.
      */
     public void registerInfoCallback(InfoCallback callback) {
-        if (!mInfoCallbacks.contains(callback)) {
-            mInfoCallbacks.add(callback);
-        } else {
+        registerInfoCallback(callback, INFO_ALL);
+    }
+
+    /**
+     * Register to receive only some kinds of keyguard information.  The
+     * broadcasts behind the others may not even be listened for.
+     * @param callback The callback.
+     * @param interests Some combination of {@link #INFO_TIME},
+     *   {@link #INFO_BATTERY}, {@link #INFO_CARRIER}, {@link #INFO_RINGER_MODE}
+     *   and {@link #INFO_PHONE_STATE}.
+     */
+    void registerInfoCallback(InfoCallback callback, int interests) {
+        if (!mInfoCallbacks.add(callback, interests)) {
             Log.e(TAG, "Object tried to add another INFO callback", new Exception("Whoops"));
         }
+        updateOnDemandReceiver();
+    }
+
+    /**
+     * Change what a registered callback wants to hear about, for instance to
+     * stop time updates while it isn't showing.
+     * @see #registerInfoCallback(InfoCallback, int)
+     */
+    void setInfoInterests(InfoCallback callback, int interests) {
+        final CallbackRegistry.Entry<InfoCallback> entry = mInfoCallbacks.get(callback);
+        if (entry == null || entry.interests == interests) {
+            return;
+        }
+        mInfoCallbacks.setInterests(callback, interests);
+        updateOnDemandReceiver();
     }
 
     /**
@@ -460,9 +638,7 @@ public class KeyguardUpdateMonitor {
      * @param callback The callback.
      */
     public void registerSimStateCallback(SimStateCallback callback) {
-        if (!mSimStateCallbacks.contains(callback)) {
-            mSimStateCallbacks.add(callback);
-        } else {
+        if (!mSimStateCallbacks.add(callback)) {
             Log.e(TAG, "Object tried to add another SIM callback", new Exception("Whoops"));
         }
     }
@@ -504,6 +680,16 @@ public class KeyguardUpdateMonitor {
         return mTelephonySpn;
     }
 
+    /**
+     * @return The phone state from the last phone state broadcast, one of
+     *   {@link TelephonyManager#EXTRA_STATE_IDLE},
+     *   {@link TelephonyManager#EXTRA_STATE_RINGING} or
+     *   {@link TelephonyManager#EXTRA_STATE_OFFHOOK}.  Safe to call from any thread.
+     */
+    public String getPhoneState() {
+        return mPhoneState;
+    }
+
     /**
      * @return Whether the device is provisioned (whether they have gone through
      *   the setup wizard)
@@ -523,4 +709,13 @@ public class KeyguardUpdateMonitor {
     public void reportFailedAttempt() {
         mFailedAttempts++;
     }
+
+    /**
+     * Print the registered callbacks and how long each has taken to
+     * handle updates.
+     */
+    void dump(String prefix, PrintWriter pw) {
+        mInfoCallbacks.dump(prefix, pw);
+        mSimStateCallbacks.dump(prefix, pw);
+    }
 }
@@ -18,6 +18,7 @@ package com.android.internal.policy.impl;
 
 import android.content.Context;
 import android.content.Intent;
+import android.content.res.Configuration;
 import android.media.AudioManager;
 import android.telephony.TelephonyManager;
 import android.view.KeyEvent;
@@ -104,6 +105,34 @@ public abstract class KeyguardViewBase extends FrameLayout {
      */
     abstract public void cleanUp();
 
+    /**
+     * Called when the keyguard is hidden but this view is kept around to be
+     * shown again next time.  Stop listening for updates, and let go of
+     * anything that is cheap to rebuild compared to the memory it holds.
+     * Either {@link #onReuse()} or {@link #cleanUp()} follows.
+     */
+    public void onKeptWarm() {
+        destroyDrawingCache();
+    }
+
+    /**
+     * @return Whether a view kept by {@link #onKeptWarm()} can be shown
+     *   again under the given configuration.  A kept view doesn't follow
+     *   configuration changes, so one built for another configuration should
+     *   be cleaned up and replaced instead.
+     */
+    public boolean canReuse(Configuration config) {
+        return true;
+    }
+
+    /**
+     * Called before a view kept by {@link #onKeptWarm()} is shown again, and
+     * before {@link #reset()}.  Start listening for updates again, and catch
+     * up with whatever changed while hidden.
+     */
+    public void onReuse() {
+    }
+
     @Override
     public boolean dispatchKeyEvent(KeyEvent event) {
         if (shouldEventKeepScreenOnWhileKeyguardShowing(event)) {
@@ -18,10 +18,12 @@ package com.android.internal.policy.impl;
 
 import com.android.internal.R;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.content.pm.ActivityInfo;
 import android.graphics.PixelFormat;
 import android.graphics.Canvas;
+import android.os.SystemProperties;
 import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
@@ -52,6 +54,27 @@ public class KeyguardViewManager implements KeyguardWindowController {
     private FrameLayout mKeyguardHost;
     private KeyguardViewBase mKeyguardView;
 
+    /**
+     * The view from the last time the keyguard was up, kept in the (hidden)
+     * host so the next {@link #show} doesn't have to build it again.
+     */
+    private KeyguardViewBase mWarmKeyguardView;
+
+    /**
+     * Only keep the view warm if the process has at least this much heap
+     * left to grow into once the view's memory is accounted for.
+     */
+    private static final long WARM_MIN_HEAP_HEADROOM = 2 * 1024 * 1024;
+
+    /**
+     * How often to check, while the view is warm, that memory hasn't become
+     * tight since.  There is no low memory callback for the policy to hook.
+     */
+    private static final long WARM_CHECK_INTERVAL_MS = 30 * 1000;
+
+    private final boolean mKeepWarm =
+            !SystemProperties.getBoolean("keyguard.no_keep_warm", false);
+
     private boolean mScreenOn = false;
 
     /**
@@ -120,6 +143,25 @@ public class KeyguardViewManager implements KeyguardWindowController {
             mViewManager.addView(mKeyguardHost, lp);
         }
 
+        if (mKeyguardView == null && mWarmKeyguardView != null) {
+            mKeyguardHost.removeCallbacks(mCheckWarmView);
+            final KeyguardViewBase warmView = mWarmKeyguardView;
+            mWarmKeyguardView = null;
+            if (warmView.canReuse(mContext.getResources().getConfiguration())) {
+                if (DEBUG) Log.d(TAG, "reusing warm keyguard view");
+                mKeyguardView = warmView;
+                mKeyguardView.onReuse();
+                mKeyguardView.reset();
+                if (mScreenOn) {
+                    mKeyguardView.onScreenTurnedOn();
+                }
+            } else {
+                // built for a configuration we have since left
+                mKeyguardHost.removeView(warmView);
+                warmView.cleanUp();
+            }
+        }
+
         if (mKeyguardView == null) {
             if (DEBUG) Log.d(TAG, "keyguard view is null, creating it...");
             mKeyguardView = mKeyguardViewProperties.createKeyguardView(mContext, mUpdateMonitor, this);
@@ -223,8 +265,18 @@ public class KeyguardViewManager implements KeyguardWindowController {
                 mKeyguardHost.postDelayed(new Runnable() {
                     public void run() {
                         synchronized (KeyguardViewManager.this) {
-                            mKeyguardHost.removeView(lastView);
-                            lastView.cleanUp();
+                            if (mKeyguardView == null && mWarmKeyguardView == null
+                                    && shouldKeepWarm()) {
+                                // leave it in the hidden host for next time, idle
+                                lastView.onScreenTurnedOff();
+                                lastView.onKeptWarm();
+                                mWarmKeyguardView = lastView;
+                                mKeyguardHost.postDelayed(mCheckWarmView,
+                                        WARM_CHECK_INTERVAL_MS);
+                            } else {
+                                mKeyguardHost.removeView(lastView);
+                                lastView.cleanUp();
+                            }
                         }
                     }
                 }, 500);
@@ -232,6 +284,48 @@ public class KeyguardViewManager implements KeyguardWindowController {
         }
     }
 
+    /**
+     * Lets go of the warm view once memory gets tight.
+     */
+    private final Runnable mCheckWarmView = new Runnable() {
+        public void run() {
+            synchronized (KeyguardViewManager.this) {
+                if (mWarmKeyguardView == null) {
+                    return;
+                }
+                if (shouldKeepWarm()) {
+                    mKeyguardHost.postDelayed(this, WARM_CHECK_INTERVAL_MS);
+                } else {
+                    if (DEBUG) Log.d(TAG, "releasing warm keyguard view");
+                    mKeyguardHost.removeView(mWarmKeyguardView);
+                    mWarmKeyguardView.cleanUp();
+                    mWarmKeyguardView = null;
+                }
+            }
+        }
+    };
+
+    /**
+     * @return Whether there is memory to spare for keeping the keyguard view
+     *   around while it is hidden.
+     */
+    private boolean shouldKeepWarm() {
+        if (!mKeepWarm) {
+            return false;
+        }
+        final ActivityManager am =
+                (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        final ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        am.getMemoryInfo(memoryInfo);
+        if (memoryInfo.lowMemory) {
+            if (DEBUG) Log.d(TAG, "low on memory, not keeping keyguard view");
+            return false;
+        }
+        final Runtime runtime = Runtime.getRuntime();
+        final long used = runtime.totalMemory() - runtime.freeMemory();
+        return runtime.maxMemory() - used >= WARM_MIN_HEAP_HEADROOM;
+    }
+
     /**
      * @return Whether the keyguard is showing
      */
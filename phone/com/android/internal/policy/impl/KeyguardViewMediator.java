@@ -28,10 +28,7 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.media.AudioManager;
-import android.media.Ringtone;
-import android.media.RingtoneManager;
-import android.net.Uri;
+import android.database.ContentObserver;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.LocalPowerManager;
@@ -49,6 +46,8 @@ import android.view.KeyEvent;
 import android.view.WindowManagerImpl;
 import android.view.WindowManagerPolicy;
 
+import java.io.PrintWriter;
+
 
 /**
  * Mediates requests related to the keyguard.  This includes queries about the
@@ -182,8 +181,16 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
      */
     private PowerManager.WakeLock mWakeAndHandOff;
 
+    /**
+     * Timing of the way from the screen going off to the keyguard being
+     * drawn, shown in {@link #dump}.
+     */
+    private final KeyguardShowTrace mShowTrace = new KeyguardShowTrace();
+
     private KeyguardViewManager mKeyguardViewManager;
 
+    private KeyguardSounds mSounds;
+
     // these are protected by synchronized (this)
 
     /**
@@ -229,6 +236,20 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
 
     private boolean mKeyboardOpen = false;
 
+    /**
+     * Cached answer to {@link #isSecure}, packed as (generation << 1) | secure
+     * so that it can be read and written atomically without a lock.  The
+     * entry is only valid while its generation matches
+     * {@link #mSecurityGeneration}; the initial value matches none.
+     */
+    private volatile long mSecureCache = -1L << 33;
+
+    /**
+     * Bumped whenever something that feeds into {@link #isSecure} may have
+     * changed: lock settings, password quality or SIM state.
+     */
+    private volatile int mSecurityGeneration;
+
     private boolean mScreenOn = false;
 
     // last known state of the cellular connection
@@ -287,6 +308,19 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
 
         final ContentResolver cr = mContext.getContentResolver();
         mShowLockIcon = (Settings.System.getInt(cr, "show_status_bar_lock", 0) == 1);
+
+        mSounds = new KeyguardSounds(context, mHandler);
+
+        // The lock pattern/password enabled flags and the stored password
+        // quality all live in the secure settings table, and LockPatternUtils
+        // writes them whenever the credential changes.
+        cr.registerContentObserver(Settings.Secure.CONTENT_URI, true,
+                new ContentObserver(mHandler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidateSecure();
+                    }
+                });
     }
 
     /**
@@ -308,6 +342,7 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
      */
     public void onScreenTurnedOff(int why) {
         synchronized (this) {
+            mShowTrace.mark(KeyguardShowTrace.STAGE_SCREEN_OFF);
             mScreenOn = false;
             if (DEBUG) Log.d(TAG, "onScreenTurnedOff(" + why + ")");
 
@@ -516,6 +551,7 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
      */
     private void doKeyguard() {
         synchronized (this) {
+            mShowTrace.mark(KeyguardShowTrace.STAGE_DO_KEYGUARD);
             // if another app is disabling us, don't show
             if (!mExternallyEnabled) {
                 if (DEBUG) Log.d(TAG, "doKeyguard: not showing because externally disabled");
@@ -613,6 +649,7 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
          * in {@link #handleWakeWhenReady(int)}
          */
         mWakeAndHandOff.acquire();
+        mShowTrace.wakeLockAcquired(KeyguardShowTrace.WAKE_LOCK_WAKE_AND_HAND_OFF);
 
         Message msg = mHandler.obtainMessage(WAKE_WHEN_READY, keyCode, 0);
         mHandler.sendMessage(msg);
@@ -624,8 +661,10 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
      */
     private void showLocked() {
         if (DEBUG) Log.d(TAG, "showLocked");
+        mShowTrace.mark(KeyguardShowTrace.STAGE_SHOW_LOCKED);
         // ensure we stay awake until we are finished displaying the keyguard
         mShowKeyguardWakeLock.acquire();
+        mShowTrace.wakeLockAcquired(KeyguardShowTrace.WAKE_LOCK_SHOW_KEYGUARD);
         Message msg = mHandler.obtainMessage(SHOW);
         mHandler.sendMessage(msg);
     }
@@ -643,6 +682,7 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
     /** {@inheritDoc} */
     public void onSimStateChanged(IccCard.State simState) {
         if (DEBUG) Log.d(TAG, "onSimStateChanged: " + simState);
+        invalidateSecure();
 
         switch (simState) {
             case ABSENT:
@@ -677,8 +717,36 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
         }
     }
 
+    /**
+     * @return Whether the keyguard requires a credential (pattern, password
+     *   or SIM PIN) to dismiss.  This is asked on every animation frame, so the
+     *   answer is cached until lock settings or SIM state change.
+     */
     public boolean isSecure() {
-        return mKeyguardViewProperties.isSecure();
+        final int generation = mSecurityGeneration;
+        final long cache = mSecureCache;
+        if ((cache >> 1) == generation) {
+            return (cache & 1) != 0;
+        }
+        final boolean secure = mKeyguardViewProperties.isSecure();
+        mSecureCache = ((long) generation << 1) | (secure ? 1 : 0);
+        return secure;
+    }
+
+    /**
+     * Force the next {@link #isSecure} to ask the keyguard properties again.
+     */
+    void invalidateSecure() {
+        mSecurityGeneration++;
+    }
+
+    /**
+     * @return Whether a call is off hook, according to the last phone state
+     *   broadcast.  Unlike asking ITelephony this never leaves the process,
+     *   so it is safe on the input thread.
+     */
+    public boolean isPhoneOffhookTq() {
+        return TelephonyManager.EXTRA_STATE_OFFHOOK.equals(mUpdateMonitor.getPhoneState());
     }
 
     private BroadcastReceiver mBroadCastReceiver = new BroadcastReceiver() {
@@ -806,6 +874,9 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
                 mUpdateMonitor.clearFailedAttempts();
             }
 
+            // Unlocking the SIM updates its state without a SIM state callback.
+            invalidateSecure();
+
             if (mExitSecureCallback != null) {
                 mExitSecureCallback.onKeyguardExitResult(authenticated);
                 mExitSecureCallback = null;
@@ -826,6 +897,7 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
      * @see #handleKeyguardDoneDrawing
      */
     public void keyguardDoneDrawing() {
+        mShowTrace.mark(KeyguardShowTrace.STAGE_DONE_DRAWING);
         mHandler.sendEmptyMessage(KEYGUARD_DONE_DRAWING);
     }
 
@@ -932,6 +1004,11 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
         }
     }
 
+    /**
+     * Queue up the lock or unlock sound.  It plays from the handler once the
+     * caller is done, so that it is never started while holding our lock
+     * and doesn't hold up showing or hiding the keyguard.
+     */
     private void playSounds(boolean locked) {
         // User feedback for keyguard.
 
@@ -940,31 +1017,20 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
             return;
         }
 
-        final ContentResolver cr = mContext.getContentResolver();
-        if (Settings.System.getInt(cr, Settings.System.LOCKSCREEN_SOUNDS_ENABLED, 1) == 1)
-        {
-            final String whichSound = locked
-                ? Settings.System.LOCK_SOUND
-                : Settings.System.UNLOCK_SOUND;
-            final String soundPath = Settings.System.getString(cr, whichSound);
-            if (soundPath != null) {
-                final Uri soundUri = Uri.parse("file://" + soundPath);
-                if (soundUri != null) {
-                    final Ringtone sfx = RingtoneManager.getRingtone(mContext, soundUri);
-                    if (sfx != null) {
-                        sfx.setStreamType(AudioManager.STREAM_SYSTEM);
-                        sfx.play();
-                    } else {
-                        Log.d(TAG, "playSounds: failed to load ringtone from uri: " + soundUri);
-                    }
-                } else {
-                    Log.d(TAG, "playSounds: could not parse Uri: " + soundPath);
-                }
-            } else {
-                Log.d(TAG, "playSounds: whichSound = " + whichSound + "; soundPath was null");
-            }
+        mHandler.post(locked ? mPlayLockSound : mPlayUnlockSound);
+    }
+
+    private final Runnable mPlayLockSound = new Runnable() {
+        public void run() {
+            mSounds.play(true);
+        }
+    };
+
+    private final Runnable mPlayUnlockSound = new Runnable() {
+        public void run() {
+            mSounds.play(false);
         }
-    }        
+    };
 
     /**
      * Handle message sent by {@link #showLocked}.
@@ -974,10 +1040,12 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
         synchronized (KeyguardViewMediator.this) {
             if (DEBUG) Log.d(TAG, "handleShow");
             if (!mSystemReady) return;
+            mShowTrace.mark(KeyguardShowTrace.STAGE_HANDLE_SHOW);
 
             playSounds(true);
 
             mKeyguardViewManager.show();
+            mShowTrace.mark(KeyguardShowTrace.STAGE_VIEW_SHOWN);
             mShowing = true;
             adjustUserActivityLocked();
             adjustStatusBarLocked();
@@ -986,6 +1054,7 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
             } catch (RemoteException e) {
             }
             mShowKeyguardWakeLock.release();
+            mShowTrace.wakeLockReleased(KeyguardShowTrace.WAKE_LOCK_SHOW_KEYGUARD);
         }
     }
 
@@ -1079,6 +1148,7 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
              * release the handoff wakelock
              */
             mWakeAndHandOff.release();
+            mShowTrace.wakeLockReleased(KeyguardShowTrace.WAKE_LOCK_WAKE_AND_HAND_OFF);
 
             if (!mWakeLock.isHeld()) {
                 Log.w(TAG, "mWakeLock not held in mKeyguardViewManager.wakeWhenReadyTq");
@@ -1130,6 +1200,11 @@ public class KeyguardViewMediator implements KeyguardViewCallback,
             mKeyguardViewManager.onScreenTurnedOn();
         }
     }
+
+    void dump(String prefix, PrintWriter pw) {
+        mShowTrace.dump(prefix, pw);
+        mUpdateMonitor.dump(prefix, pw);
+    }
 }
 
 
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.policy.impl;
+
+import java.io.PrintWriter;
+
+/**
+ * Fixed-bucket latency histograms, one row per slot (for instance per
+ * keycode).  Recording is a couple of array writes and never allocates, so
+ * it can stay on in the input path.
+ *
+ * Each instance is meant to have a single writer thread.  {@link #dump} and
+ * {@link #reset} may run on another thread; a sample recorded concurrently
+ * with either may be lost or miscounted, which is fine for statistics.
+ */
+final class LatencyHistogram {
+    // Upper bounds of the buckets, in microseconds.  Anything slower lands
+    // in a final overflow bucket.
+    private static final int[] BUCKET_BOUNDS_US = {
+        10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000,
+    };
+    private static final int BUCKETS = BUCKET_BOUNDS_US.length + 1;
+
+    private final String mName;
+    private final int mSlots;
+    private final int[] mCounts;
+    private final long[] mMaxNanos;
+
+    /**
+     * @param name Label used in the dump.
+     * @param slots Number of rows; samples for slots out of range are
+     *   recorded in the last row.
+     */
+    LatencyHistogram(String name, int slots) {
+        mName = name;
+        mSlots = slots;
+        mCounts = new int[slots * BUCKETS];
+        mMaxNanos = new long[slots];
+    }
+
+    void record(int slot, long startNanos) {
+        final long nanos = System.nanoTime() - startNanos;
+        if (slot < 0 || slot >= mSlots) {
+            slot = mSlots - 1;
+        }
+        final long us = nanos / 1000;
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_US.length && us >= BUCKET_BOUNDS_US[bucket]) {
+            bucket++;
+        }
+        mCounts[slot * BUCKETS + bucket]++;
+        if (nanos > mMaxNanos[slot]) {
+            mMaxNanos[slot] = nanos;
+        }
+    }
+
+    void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        for (int i = 0; i < mMaxNanos.length; i++) {
+            mMaxNanos[i] = 0;
+        }
+    }
+
+    /**
+     * Print one line per slot that has samples, listing the non-empty
+     * buckets as "&lt;bound:count".
+     *
+     * @param slotLabel Printed before each slot number, e.g. "keycode=".
+     */
+    void dump(String prefix, String slotLabel, PrintWriter pw) {
+        pw.print(prefix); pw.print(mName); pw.println(" (us):");
+        for (int slot = 0; slot < mSlots; slot++) {
+            final int base = slot * BUCKETS;
+            int total = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                total += mCounts[base + b];
+            }
+            if (total == 0) {
+                continue;
+            }
+            pw.print(prefix); pw.print("  "); pw.print(slotLabel); pw.print(slot);
+                    pw.print(" n="); pw.print(total);
+                    pw.print(" max="); pw.print(mMaxNanos[slot] / 1000);
+                    pw.print(":");
+            for (int b = 0; b < BUCKETS; b++) {
+                final int count = mCounts[base + b];
+                if (count == 0) {
+                    continue;
+                }
+                if (b < BUCKET_BOUNDS_US.length) {
+                    pw.print(" <"); pw.print(BUCKET_BOUNDS_US[b]);
+                } else {
+                    pw.print(" >="); pw.print(BUCKET_BOUNDS_US[b - 1]);
+                }
+                pw.print(":"); pw.print(count);
+            }
+            pw.println();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.policy.impl;
+
+import android.os.Debug;
+
+import java.io.PrintWriter;
+
+/**
+ * Accumulates timing and allocation counts for the policy's share of a
+ * window layout pass, that is {@link PhoneWindowManager#beginLayoutLw}, each
+ * {@link PhoneWindowManager#layoutWindowLw} and
+ * {@link PhoneWindowManager#finishLayoutLw}.  Time spent in the window
+ * manager between those calls is not counted.
+ *
+ * All methods must be called with the window manager lock held, which is
+ * the case for the Lw methods that drive it.
+ */
+final class LayoutStats {
+    private long mPasses;
+    private long mWindows;
+    private long mBeginNanos;
+    private long mWindowNanos;
+    private long mMaxWindowNanos;
+    private long mAllocations;
+    private int mMaxWindowsPerPass;
+
+    private int mPassWindows;
+    private long mStartNanos;
+    private int mStartAllocs;
+
+    LayoutStats() {
+        // Allocation counts are only maintained by the VM while counting is
+        // turned on; this is process wide, which is why the stats are opt-in.
+        Debug.startAllocCounting();
+    }
+
+    void beginPass() {
+        mPassWindows = 0;
+        mStartNanos = System.nanoTime();
+        mStartAllocs = Debug.getThreadAllocCount();
+    }
+
+    void endBeginPass() {
+        mBeginNanos += System.nanoTime() - mStartNanos;
+        mAllocations += Debug.getThreadAllocCount() - mStartAllocs;
+    }
+
+    void beginWindow() {
+        mStartNanos = System.nanoTime();
+        mStartAllocs = Debug.getThreadAllocCount();
+    }
+
+    void endWindow() {
+        final long nanos = System.nanoTime() - mStartNanos;
+        mAllocations += Debug.getThreadAllocCount() - mStartAllocs;
+        mWindowNanos += nanos;
+        if (nanos > mMaxWindowNanos) {
+            mMaxWindowNanos = nanos;
+        }
+        mPassWindows++;
+    }
+
+    void endPass() {
+        mPasses++;
+        mWindows += mPassWindows;
+        if (mPassWindows > mMaxWindowsPerPass) {
+            mMaxWindowsPerPass = mPassWindows;
+        }
+    }
+
+    void reset() {
+        mPasses = mWindows = 0;
+        mBeginNanos = mWindowNanos = mMaxWindowNanos = 0;
+        mAllocations = 0;
+        mMaxWindowsPerPass = 0;
+    }
+
+    void dump(String prefix, PrintWriter pw) {
+        pw.print(prefix); pw.print("passes="); pw.print(mPasses);
+                pw.print(" windows="); pw.print(mWindows);
+                pw.print(" maxWindowsPerPass="); pw.println(mMaxWindowsPerPass);
+        if (mPasses == 0) {
+            return;
+        }
+        pw.print(prefix); pw.print("ns/window=");
+                pw.print(mWindows != 0 ? mWindowNanos / mWindows : 0);
+                pw.print(" maxNs/window="); pw.print(mMaxWindowNanos);
+                pw.print(" beginNs/pass="); pw.println(mBeginNanos / mPasses);
+        pw.print(prefix); pw.print("allocations/pass=");
+                pw.println((float) mAllocations / mPasses);
+    }
+}
@@ -37,6 +37,8 @@ import android.graphics.ColorFilter;
 import android.graphics.PixelFormat;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.telephony.TelephonyManager;
@@ -47,6 +49,7 @@ import android.view.View;
 import android.view.WindowManager;
 
 import java.io.IOException;
+import java.util.HashMap;
 
 /**
  * The host view for all of the screens of the pattern unlock screen.  There are
@@ -78,6 +81,26 @@ public class LockPatternKeyguardView extends KeyguardViewBase {
     private View mLockScreen;
     private View mUnlockScreen;
 
+    // The pool keys the current screens were created for, see screenKey().
+    private int mLockScreenKey;
+    private int mUnlockScreenKey;
+
+    /**
+     * Screens a configuration change has replaced, or that were built ahead
+     * of one, at most one per key, so that rotating or sliding the keyboard
+     * can reuse them instead of inflating new ones.  Pooled screens are
+     * cleaned up, so they don't hear from the update monitor until they are
+     * reused.
+     */
+    private final HashMap<Integer, View> mScreenPool = new HashMap<Integer, View>();
+
+    // Set once a keyguard in this process has been through a configuration
+    // change; until then, on a device without a keyboard to slide, building
+    // the screens for the other orientation ahead of time isn't worth it.
+    private static boolean sConfigHasChanged;
+
+    private boolean mCleanedUp;
+
     private boolean mScreenOn = false;
     private boolean mEnableFallback = false; // assume no fallback UI until we know better
 
@@ -243,6 +266,12 @@ public class LockPatternKeyguardView extends KeyguardViewBase {
             }
 
             public void recreateMe(Configuration config) {
+                if (mCleanedUp) {
+                    // kept warm while hidden; rather than register screens
+                    // again, leave it to canReuse() to turn us down
+                    return;
+                }
+                sConfigHasChanged = true;
                 mConfiguration = config;
                 recreateScreens();
             }
@@ -318,18 +347,32 @@ public class LockPatternKeyguardView extends KeyguardViewBase {
         // create both the lock and unlock screen so they are quickly available
         // when the screen turns on
         mLockScreen = createLockScreen();
+        mLockScreenKey = screenKey(null, mConfiguration);
         addView(mLockScreen);
         final UnlockMode unlockMode = getUnlockMode();
         if (DEBUG) Log.d(TAG,
             "LockPatternKeyguardView ctor: about to createUnlockScreenFor; mEnableFallback="
             + mEnableFallback);
         mUnlockScreen = createUnlockScreenFor(unlockMode);
+        mUnlockScreenKey = screenKey(unlockMode, mConfiguration);
         mUnlockScreenMode = unlockMode;
 
         maybeEnableFallback(context);
 
         addView(mUnlockScreen);
         updateScreen(mMode);
+
+        if (sConfigHasChanged || mConfiguration.keyboard != Configuration.KEYBOARD_NOKEYS) {
+            // once things settle down, get the screens for the other
+            // configuration ready so that switching to it doesn't have to
+            // inflate them while the user watches
+            Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                public boolean queueIdle() {
+                    prepareOtherScreens();
+                    return false;
+                }
+            });
+        }
     }
 
     private class AccountAnalyzer implements AccountManagerCallback<Bundle> {
@@ -431,34 +474,137 @@ public class LockPatternKeyguardView extends KeyguardViewBase {
     }
 
     private void recreateLockScreen() {
-        if (mLockScreen.getVisibility() == View.VISIBLE) {
-            ((KeyguardScreen) mLockScreen).onPause();
-        }
-        ((KeyguardScreen) mLockScreen).cleanUp();
         removeView(mLockScreen);
+        retireScreen(mLockScreenKey, mLockScreen, true);
 
-        mLockScreen = createLockScreen();
+        mLockScreenKey = screenKey(null, mConfiguration);
+        mLockScreen = reuseScreen(mLockScreenKey);
+        if (mLockScreen == null) {
+            mLockScreen = createLockScreen();
+        }
         mLockScreen.setVisibility(View.INVISIBLE);
         addView(mLockScreen);
     }
 
-    private void recreateUnlockScreen() {
-        if (mUnlockScreen.getVisibility() == View.VISIBLE) {
-            ((KeyguardScreen) mUnlockScreen).onPause();
-        }
-        ((KeyguardScreen) mUnlockScreen).cleanUp();
+    /**
+     * @param configChanged Whether the configuration changed, rather than
+     *   the unlock mode; only then is the old screen worth pooling.
+     */
+    private void recreateUnlockScreen(boolean configChanged) {
         removeView(mUnlockScreen);
+        retireScreen(mUnlockScreenKey, mUnlockScreen, configChanged);
 
         final UnlockMode unlockMode = getUnlockMode();
-        mUnlockScreen = createUnlockScreenFor(unlockMode);
+        mUnlockScreenKey = screenKey(unlockMode, mConfiguration);
+        mUnlockScreen = reuseScreen(mUnlockScreenKey);
+        if (mUnlockScreen == null) {
+            mUnlockScreen = createUnlockScreenFor(unlockMode);
+        } else {
+            if (DEBUG) Log.d(TAG, "reusing unlock screen for " + unlockMode);
+            if (mUnlockScreen instanceof PatternUnlockScreen) {
+                final PatternUnlockScreen view = (PatternUnlockScreen) mUnlockScreen;
+                view.setFailedAttempts(mUpdateMonitor.getFailedAttempts());
+                view.setEnableFallback(mEnableFallback);
+            }
+            mCurrentUnlockMode = unlockMode;
+        }
         mUnlockScreen.setVisibility(View.INVISIBLE);
         mUnlockScreenMode = unlockMode;
         addView(mUnlockScreen);
     }
 
+    /**
+     * @param unlockMode The unlock mode of an unlock screen, or null for the
+     *   lock screen.
+     * @return The key in {@link #mScreenPool} for a screen created for the
+     *   given configuration.
+     */
+    private static int screenKey(UnlockMode unlockMode, Configuration config) {
+        final int kind = unlockMode == null ? 0 : unlockMode.ordinal() + 1;
+        return (kind << 16) | (config.orientation << 8) | config.hardKeyboardHidden;
+    }
+
+    /**
+     * Clean up a screen that isn't in the view hierarchy.  If it belongs to
+     * a configuration we may switch to, because a configuration change
+     * replaced it or it was built ahead, and it can be reused, it is put
+     * aside; if the pool already has one for the same key, the one that has
+     * been out of use longer is thrown away.  The SIM and account screens
+     * are never pooled: they are rarely rotated and hold on to what the
+     * user typed.
+     */
+    private void retireScreen(int key, View screen, boolean configChanged) {
+        if (screen.getVisibility() == View.VISIBLE) {
+            ((KeyguardScreen) screen).onPause();
+        }
+        ((KeyguardScreen) screen).cleanUp();
+        if (configChanged && screen instanceof ReusableKeyguardScreen) {
+            mScreenPool.put(key, screen);
+        }
+    }
+
+    /**
+     * @return The pooled screen for the key, registered with the update
+     *   monitor again, or null if there isn't one.
+     */
+    private View reuseScreen(int key) {
+        final View screen = mScreenPool.remove(key);
+        if (screen != null) {
+            ((ReusableKeyguardScreen) screen).onReuse();
+        }
+        return screen;
+    }
+
+    /**
+     * Build the lock screen and, if it can be pooled, the current unlock
+     * screen for the configuration we are most likely to switch to next,
+     * and pool them.  That is the other orientation, with the keyboard slid
+     * the other way too on devices that have one, since sliding it is what
+     * rotates them.  Run while the UI thread is idle.
+     */
+    private void prepareOtherScreens() {
+        if (mCleanedUp) {
+            // we were hidden before we got to it
+            return;
+        }
+        final Configuration other = new Configuration(mConfiguration);
+        if (other.orientation == Configuration.ORIENTATION_LANDSCAPE) {
+            other.orientation = Configuration.ORIENTATION_PORTRAIT;
+        } else if (other.orientation == Configuration.ORIENTATION_PORTRAIT) {
+            other.orientation = Configuration.ORIENTATION_LANDSCAPE;
+        } else {
+            return;
+        }
+        if (other.keyboard != Configuration.KEYBOARD_NOKEYS) {
+            other.hardKeyboardHidden =
+                    other.hardKeyboardHidden == Configuration.HARDKEYBOARDHIDDEN_NO
+                    ? Configuration.HARDKEYBOARDHIDDEN_YES
+                    : Configuration.HARDKEYBOARDHIDDEN_NO;
+        }
+
+        final Configuration current = mConfiguration;
+        final UnlockMode currentUnlockMode = mCurrentUnlockMode;
+        mConfiguration = other;
+        try {
+            final int lockKey = screenKey(null, other);
+            if (!mScreenPool.containsKey(lockKey)) {
+                retireScreen(lockKey, createLockScreen(), true);
+            }
+            final int unlockKey = screenKey(mUnlockScreenMode, other);
+            if ((mUnlockScreenMode == UnlockMode.Pattern
+                    || mUnlockScreenMode == UnlockMode.Password)
+                    && !mScreenPool.containsKey(unlockKey)) {
+                retireScreen(unlockKey, createUnlockScreenFor(mUnlockScreenMode), true);
+            }
+        } finally {
+            mConfiguration = current;
+            mCurrentUnlockMode = currentUnlockMode;
+        }
+    }
+
     private void recreateScreens() {
         recreateLockScreen();
-        recreateUnlockScreen();
+        recreateUnlockScreen(true);
         updateScreen(mMode);
     }
 
@@ -497,6 +643,43 @@ public class LockPatternKeyguardView extends KeyguardViewBase {
         ((KeyguardScreen) mLockScreen).cleanUp();
         ((KeyguardScreen) mUnlockScreen).onPause();
         ((KeyguardScreen) mUnlockScreen).cleanUp();
+        mScreenPool.clear();
+        mCleanedUp = true;
+    }
+
+    @Override
+    public void onKeptWarm() {
+        super.onKeptWarm();
+        // unregisters the screens and empties the pool, which is only worth
+        // its memory while we're up
+        cleanUp();
+    }
+
+    @Override
+    public boolean canReuse(Configuration config) {
+        return config.orientation == mConfiguration.orientation
+                && config.hardKeyboardHidden == mConfiguration.hardKeyboardHidden;
+    }
+
+    @Override
+    public void onReuse() {
+        mCleanedUp = false;
+        ((ReusableKeyguardScreen) mLockScreen).onReuse();
+
+        // the unlock mode may have changed while we were hidden, and the
+        // SIM and account screens are always built fresh
+        if (mUnlockScreen instanceof ReusableKeyguardScreen
+                && getUnlockMode() == mUnlockScreenMode) {
+            ((ReusableKeyguardScreen) mUnlockScreen).onReuse();
+            if (mUnlockScreen instanceof PatternUnlockScreen) {
+                ((PatternUnlockScreen) mUnlockScreen).setFailedAttempts(
+                        mUpdateMonitor.getFailedAttempts());
+            }
+        } else {
+            recreateUnlockScreen(false);
+        }
+        // so might the accounts
+        maybeEnableFallback(mContext);
     }
 
     private boolean isSecure() {
@@ -532,7 +715,7 @@ public class LockPatternKeyguardView extends KeyguardViewBase {
         // Re-create the unlock screen if necessary. This is primarily required to properly handle
         // SIM state changes. This typically happens when this method is called by reset()
         if (mode == Mode.UnlockScreen && mCurrentUnlockMode != getUnlockMode()) {
-            recreateUnlockScreen();
+            recreateUnlockScreen(false);
         }
 
         final View goneScreen = (mode == Mode.LockScreen) ? mUnlockScreen : mLockScreen;
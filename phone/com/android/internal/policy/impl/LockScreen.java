@@ -46,7 +46,7 @@ import java.io.File;
  * information about the device depending on its state, and how to get
  * past it, as applicable.
  */
-class LockScreen extends LinearLayout implements KeyguardScreen, KeyguardUpdateMonitor.InfoCallback,
+class LockScreen extends LinearLayout implements ReusableKeyguardScreen, KeyguardUpdateMonitor.InfoCallback,
         KeyguardUpdateMonitor.SimStateCallback, SlidingTab.OnTriggerListener {
 
     private static final boolean DBG = false;
@@ -652,11 +652,14 @@ class LockScreen extends LinearLayout implements KeyguardScreen, KeyguardUpdateM
 
     /** {@inheritDoc} */
     public void onPause() {
-
+        // nobody sees the clock tick while we're paused
+        mUpdateMonitor.setInfoInterests(this,
+                KeyguardUpdateMonitor.INFO_ALL & ~KeyguardUpdateMonitor.INFO_TIME);
     }
 
     /** {@inheritDoc} */
     public void onResume() {
+        mUpdateMonitor.setInfoInterests(this, KeyguardUpdateMonitor.INFO_ALL);
         resetStatusInfo(mUpdateMonitor);
         mLockPatternUtils.updateEmergencyCallButtonState(mEmergencyCallButton);
     }
@@ -666,6 +669,13 @@ class LockScreen extends LinearLayout implements KeyguardScreen, KeyguardUpdateM
         mUpdateMonitor.removeCallback(this);
     }
 
+    /** {@inheritDoc} */
+    public void onReuse() {
+        mUpdateMonitor.registerInfoCallback(this,
+                KeyguardUpdateMonitor.INFO_ALL & ~KeyguardUpdateMonitor.INFO_TIME);
+        mUpdateMonitor.registerSimStateCallback(this);
+    }
+
     /** {@inheritDoc} */
     public void onRingerModeChanged(int state) {
         boolean silent = AudioManager.RINGER_MODE_NORMAL != state;
@@ -47,7 +47,7 @@ import com.android.internal.widget.PasswordEntryKeyboardHelper;
  * Displays a dialer-like interface or alphanumeric (latin-1) key entry for the user to enter
  * an unlock password
  */
-public class PasswordUnlockScreen extends LinearLayout implements KeyguardScreen,
+public class PasswordUnlockScreen extends LinearLayout implements ReusableKeyguardScreen,
         View.OnClickListener, KeyguardUpdateMonitor.InfoCallback, OnEditorActionListener {
 
     private final KeyguardUpdateMonitor mUpdateMonitor;
@@ -56,6 +56,7 @@ public class PasswordUnlockScreen extends LinearLayout implements KeyguardScreen
     private EditText mPasswordEntry;
     private Button mEmergencyCallButton;
     private LockPatternUtils mLockPatternUtils;
+    private final CredentialChecker mChecker;
     private PasswordEntryKeyboardView mKeyboardView;
     private PasswordEntryKeyboardHelper mKeyboardHelper;
 
@@ -78,6 +79,7 @@ public class PasswordUnlockScreen extends LinearLayout implements KeyguardScreen
         mUpdateMonitor = updateMonitor;
         mCallback = callback;
         mLockPatternUtils = lockPatternUtils;
+        mChecker = new CredentialChecker(lockPatternUtils);
 
         LayoutInflater layoutInflater = LayoutInflater.from(context);
         if (mCreationOrientation != Configuration.ORIENTATION_LANDSCAPE) {
@@ -136,6 +138,11 @@ public class PasswordUnlockScreen extends LinearLayout implements KeyguardScreen
 
     /** {@inheritDoc} */
     public void onResume() {
+        if (mChecker.isChecking()) {
+            // the pending check will reset the entry when it comes back
+            return;
+        }
+
         // start fresh
         mPasswordEntry.setText("");
         mPasswordEntry.requestFocus();
@@ -153,6 +160,11 @@ public class PasswordUnlockScreen extends LinearLayout implements KeyguardScreen
         mUpdateMonitor.removeCallback(this);
     }
 
+    /** {@inheritDoc} */
+    public void onReuse() {
+        // nothing to register for
+    }
+
     public void onClick(View v) {
         if (v == mEmergencyCallButton) {
             mCallback.takeEmergencyCallAction();
@@ -161,8 +173,24 @@ public class PasswordUnlockScreen extends LinearLayout implements KeyguardScreen
     }
 
     private void verifyPasswordAndUnlock() {
-        String entry = mPasswordEntry.getText().toString();
-        if (mLockPatternUtils.checkPassword(entry)) {
+        if (mChecker.isChecking()) {
+            return;
+        }
+        final String entry = mPasswordEntry.getText().toString();
+        // no more typing until we know whether this one was right
+        mPasswordEntry.setEnabled(false);
+        mKeyboardView.setEnabled(false);
+        mChecker.checkPassword(entry, new CredentialChecker.OnCheckedListener() {
+            public void onChecked(boolean matched) {
+                mPasswordEntry.setEnabled(true);
+                mKeyboardView.setEnabled(true);
+                onPasswordChecked(matched, entry);
+            }
+        });
+    }
+
+    private void onPasswordChecked(boolean matched, String entry) {
+        if (matched) {
             mCallback.keyguardDone(true);
             mCallback.reportSuccessfulUnlockAttempt();
         } else if (entry.length() > MINIMUM_PASSWORD_LENGTH_BEFORE_REPORT ) {
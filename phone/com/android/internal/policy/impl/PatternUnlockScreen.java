@@ -44,7 +44,7 @@ import java.util.Date;
  * the user how to unlock their device, or make an emergency call.
  */
 class PatternUnlockScreen extends LinearLayoutWithDefaultTouchRecepient
-        implements KeyguardScreen, KeyguardUpdateMonitor.InfoCallback,
+        implements ReusableKeyguardScreen, KeyguardUpdateMonitor.InfoCallback,
         KeyguardUpdateMonitor.SimStateCallback {
 
     private static final boolean DEBUG = false;
@@ -62,6 +62,10 @@ class PatternUnlockScreen extends LinearLayoutWithDefaultTouchRecepient
     // how many cells the user has to cross before we poke the wakelock
     private static final int MIN_PATTERN_BEFORE_POKE_WAKELOCK = 2;
 
+    // the ringer mode is of no interest to us
+    private static final int INFO_INTERESTS = KeyguardUpdateMonitor.INFO_ALL
+            & ~KeyguardUpdateMonitor.INFO_RINGER_MODE;
+
     private int mFailedPatternAttemptsSinceLastTimeout = 0;
     private int mTotalFailedPatternAttempts = 0;
     private CountDownTimer mCountdownTimer = null;
@@ -69,6 +73,7 @@ class PatternUnlockScreen extends LinearLayoutWithDefaultTouchRecepient
     private final LockPatternUtils mLockPatternUtils;
     private final KeyguardUpdateMonitor mUpdateMonitor;
     private final KeyguardScreenCallback mCallback;
+    private final CredentialChecker mChecker;
 
     /**
      * whether there is a fallback option available when the pattern is forgotten.
@@ -165,6 +170,7 @@ class PatternUnlockScreen extends LinearLayoutWithDefaultTouchRecepient
                  int totalFailedAttempts) {
         super(context);
         mLockPatternUtils = lockPatternUtils;
+        mChecker = new CredentialChecker(lockPatternUtils);
         mUpdateMonitor = updateMonitor;
         mCallback = callback;
         mTotalFailedPatternAttempts = totalFailedAttempts;
@@ -245,7 +251,7 @@ class PatternUnlockScreen extends LinearLayoutWithDefaultTouchRecepient
         // assume normal footer mode for now
         updateFooter(FooterMode.Normal);
 
-        updateMonitor.registerInfoCallback(this);
+        updateMonitor.registerInfoCallback(this, INFO_INTERESTS);
         updateMonitor.registerSimStateCallback(this);
         setFocusableInTouchMode(true);
 
@@ -270,6 +276,16 @@ class PatternUnlockScreen extends LinearLayoutWithDefaultTouchRecepient
         mEnableFallback = state;
     }
 
+    /**
+     * Catch up on failed attempts made while this screen wasn't in use.
+     * @param totalFailedAttempts The current number of failed attempts.
+     */
+    void setFailedAttempts(int totalFailedAttempts) {
+        mTotalFailedPatternAttempts = totalFailedAttempts;
+        mFailedPatternAttemptsSinceLastTimeout =
+            totalFailedAttempts % LockPatternUtils.FAILED_ATTEMPTS_BEFORE_TIMEOUT;
+    }
+
     private void resetStatusInfo() {
         mInstructions = null;
         mShowingBatteryInfo = mUpdateMonitor.shouldShowBatteryInfo();
@@ -436,6 +452,8 @@ class PatternUnlockScreen extends LinearLayoutWithDefaultTouchRecepient
 
     /** {@inheritDoc} */
     public void onPause() {
+        mUpdateMonitor.setInfoInterests(this,
+                INFO_INTERESTS & ~KeyguardUpdateMonitor.INFO_TIME);
         if (mCountdownTimer != null) {
             mCountdownTimer.cancel();
             mCountdownTimer = null;
@@ -444,13 +462,19 @@ class PatternUnlockScreen extends LinearLayoutWithDefaultTouchRecepient
 
     /** {@inheritDoc} */
     public void onResume() {
+        mUpdateMonitor.setInfoInterests(this, INFO_INTERESTS);
+        refreshTimeAndDateDisplay();
+
         // reset header
         resetStatusInfo();
 
-        // reset lock pattern
-        mLockPatternView.enableInput();
-        mLockPatternView.setEnabled(true);
-        mLockPatternView.clearPattern();
+        // reset lock pattern, unless we're still waiting to hear whether
+        // the last one was right
+        if (!mChecker.isChecking()) {
+            mLockPatternView.enableInput();
+            mLockPatternView.setEnabled(true);
+            mLockPatternView.clearPattern();
+        }
 
         // show "forgot pattern?" button if we have an alternate authentication method
         mForgotPatternButton.setVisibility(mCallback.doesFallbackUnlockScreenExist()
@@ -480,6 +504,13 @@ class PatternUnlockScreen extends LinearLayoutWithDefaultTouchRecepient
         mUpdateMonitor.removeCallback(this);
     }
 
+    /** {@inheritDoc} */
+    public void onReuse() {
+        mUpdateMonitor.registerInfoCallback(this,
+                INFO_INTERESTS & ~KeyguardUpdateMonitor.INFO_TIME);
+        mUpdateMonitor.registerSimStateCallback(this);
+    }
+
     @Override
     public void onWindowFocusChanged(boolean hasWindowFocus) {
         super.onWindowFocusChanged(hasWindowFocus);
@@ -510,8 +541,20 @@ class PatternUnlockScreen extends LinearLayoutWithDefaultTouchRecepient
             }
         }
 
-        public void onPatternDetected(List<LockPatternView.Cell> pattern) {
-            if (mLockPatternUtils.checkPattern(pattern)) {
+        public void onPatternDetected(final List<LockPatternView.Cell> pattern) {
+            // leave the pattern up but frozen while it is checked
+            mLockPatternView.disableInput();
+            final int patternSize = pattern.size();
+            mChecker.checkPattern(pattern, new CredentialChecker.OnCheckedListener() {
+                public void onChecked(boolean matched) {
+                    mLockPatternView.enableInput();
+                    onPatternChecked(matched, patternSize);
+                }
+            });
+        }
+
+        private void onPatternChecked(boolean matched, int patternSize) {
+            if (matched) {
                 mLockPatternView
                         .setDisplayMode(LockPatternView.DisplayMode.Correct);
                 mInstructions = "";
@@ -519,11 +562,11 @@ class PatternUnlockScreen extends LinearLayoutWithDefaultTouchRecepient
                 mCallback.keyguardDone(true);
                 mCallback.reportSuccessfulUnlockAttempt();
             } else {
-                if (pattern.size() > MIN_PATTERN_BEFORE_POKE_WAKELOCK) {
+                if (patternSize > MIN_PATTERN_BEFORE_POKE_WAKELOCK) {
                     mCallback.pokeWakelock(UNLOCK_PATTERN_WAKE_INTERVAL_MS);
                 }
                 mLockPatternView.setDisplayMode(LockPatternView.DisplayMode.Wrong);
-                if (pattern.size() >= LockPatternUtils.MIN_PATTERN_REGISTER_FAIL) {
+                if (patternSize >= LockPatternUtils.MIN_PATTERN_REGISTER_FAIL) {
                     mTotalFailedPatternAttempts++;
                     mFailedPatternAttemptsSinceLastTimeout++;
                     mCallback.reportFailedUnlockAttempt();
@@ -30,11 +30,13 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.database.ContentObserver;
 import android.graphics.PixelFormat;
 import android.graphics.Rect;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.LocalPowerManager;
@@ -105,7 +107,10 @@ import android.view.animation.AnimationUtils;
 import android.media.IAudioService;
 import android.media.AudioManager;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * WindowManagerPolicy implementation for the Android phone UI.  This
@@ -114,7 +119,7 @@ import java.util.ArrayList;
  * can be acquired with either thw Lw and Li lock held, so has the restrictions
  * of both of those when held.
  */
-public class PhoneWindowManager implements WindowManagerPolicy {
+public class PhoneWindowManager implements WindowManagerPolicy, PolicyDump.Dumpable {
     static final String TAG = "WindowManager";
     static final boolean DEBUG = false;
     static final boolean localLOGV = DEBUG ? Config.LOGD : Config.LOGV;
@@ -186,6 +191,20 @@ public class PhoneWindowManager implements WindowManagerPolicy {
     // Vibrator pattern for haptic feedback during boot when safe mode is enabled.
     long[] mSafeModeEnabledVibePattern;
 
+    // Settings.System.HAPTIC_FEEDBACK_ENABLED, kept up to date by the
+    // SettingsObserver so haptic feedback doesn't go to the provider.
+    volatile boolean mHapticFeedbackEnabled;
+
+    // The same pattern asked for again within this many ms is only played
+    // once, e.g. a virtual key press reported both by the input system and
+    // by the view that handled it.
+    static final int HAPTIC_COLLAPSE_MS = 20;
+
+    // protected by mLock
+    long[] mLastHapticPattern;
+    long mLastHapticTime;
+    int mHapticCollapsed;
+
     /** If true, hitting shift & menu will broadcast Intent.ACTION_BUG_REPORT */
     boolean mEnableShiftMenuBugReports = false;
     
@@ -241,6 +260,65 @@ public class PhoneWindowManager implements WindowManagerPolicy {
     static final Rect mTmpDisplayFrame = new Rect();
     static final Rect mTmpContentFrame = new Rect();
     static final Rect mTmpVisibleFrame = new Rect();
+
+    // Per-pass layout timing, only collected when debug.policy.layout_stats
+    // is set; null otherwise.
+    LayoutStats mLayoutStats;
+
+    /**
+     * Everything computeFrameLw() looks at for a window whose size is not
+     * under its own control (both dimensions MATCH_PARENT): the four frames
+     * we hand it, plus the attributes it uses to place the window in them.
+     * If none of these changed since the last pass, neither did the result.
+     */
+    static final class LayoutCacheEntry {
+        final Rect parentFrame = new Rect();
+        final Rect displayFrame = new Rect();
+        final Rect contentFrame = new Rect();
+        final Rect visibleFrame = new Rect();
+        int type;
+        int flags;
+        int softInputMode;
+        int gravity;
+        int x, y;
+        float horizontalMargin, verticalMargin;
+
+        boolean matches(WindowManager.LayoutParams attrs, Rect pf, Rect df, Rect cf, Rect vf) {
+            return type == attrs.type && flags == attrs.flags
+                    && softInputMode == attrs.softInputMode && gravity == attrs.gravity
+                    && x == attrs.x && y == attrs.y
+                    && horizontalMargin == attrs.horizontalMargin
+                    && verticalMargin == attrs.verticalMargin
+                    && parentFrame.equals(pf) && displayFrame.equals(df)
+                    && contentFrame.equals(cf) && visibleFrame.equals(vf);
+        }
+
+        void set(WindowManager.LayoutParams attrs, Rect pf, Rect df, Rect cf, Rect vf) {
+            type = attrs.type;
+            flags = attrs.flags;
+            softInputMode = attrs.softInputMode;
+            gravity = attrs.gravity;
+            x = attrs.x;
+            y = attrs.y;
+            horizontalMargin = attrs.horizontalMargin;
+            verticalMargin = attrs.verticalMargin;
+            parentFrame.set(pf);
+            displayFrame.set(df);
+            contentFrame.set(cf);
+            visibleFrame.set(vf);
+        }
+    }
+
+    // Incremental layout: skip computeFrameLw() for windows whose inputs
+    // are unchanged since their last layout.  Disable with
+    // debug.policy.incremental_layout=false.
+    boolean mIncrementalLayout;
+    final HashMap<WindowState, LayoutCacheEntry> mLayoutCache
+            = new HashMap<WindowState, LayoutCacheEntry>();
+    int mLayoutCacheHits;
+    int mLayoutCacheMisses;
+
+    StartingWindowCache mStartingWindowCache;
     
     WindowState mTopFullscreenOpaqueWindowState;
     boolean mForceStatusBar;
@@ -274,6 +352,60 @@ public class PhoneWindowManager implements WindowManagerPolicy {
     ShortcutManager mShortcutManager;
     PowerManager.WakeLock mBroadcastWakeLock;
 
+    // How long the policy holds on to input events.  Key histograms have a
+    // row per keycode plus one for anything out of range or not a key, see
+    // latencySlot().
+    static final int LATENCY_KEYCODE_SLOTS = KeyEvent.getMaxKeyCode() + 2;
+    final LatencyHistogram mInterceptKeyTqLatency =
+            new LatencyHistogram("interceptKeyTq", LATENCY_KEYCODE_SLOTS);
+    final LatencyHistogram mInterceptKeyTiLatency =
+            new LatencyHistogram("interceptKeyTi", LATENCY_KEYCODE_SLOTS);
+    final LatencyHistogram mPreprocessLatency =
+            new LatencyHistogram("preprocessInputEventTq", LATENCY_KEYCODE_SLOTS);
+    final LatencyHistogram mPointerEventLatency =
+            new LatencyHistogram("dispatchedPointerEventLw", 1);
+    // From addStartingWindow() to its addView() returning; row 0 is for
+    // windows built for the launch, row 1 for windows from the pool.
+    final LatencyHistogram mStartingWindowLatency =
+            new LatencyHistogram("addStartingWindow", 2);
+
+    // How interceptKeyTq() treats each keycode, indexed by keycode.  Filled
+    // in once by initKeyRoutes(); keycodes without an entry get no special
+    // handling.
+    static final int KEY_ROUTE_NONE = 0;
+    static final int KEY_ROUTE_POWER = 1;
+    static final int KEY_ROUTE_ENDCALL = 2;
+    static final int KEY_ROUTE_CALL = 3;
+    static final int KEY_ROUTE_VOLUME = 4;
+    static final int KEY_ROUTE_MEDIA = 5;
+    final byte[] mKeyRoutes = new byte[KeyEvent.getMaxKeyCode() + 1];
+
+    // Runs broadcasts and activity starts decided on by key interception,
+    // so the input threads don't wait for them.
+    PolicyActionExecutor mActionExecutor;
+
+    // Last value of AudioManager.isMusicActive(), refreshed on mHandler so
+    // that interceptKeyTq() never has to ask the audio system itself.  It is
+    // polled while the screen is off, which is when interceptKeyTq() handles
+    // the volume keys; the poll runs on uptime, so it doesn't keep the device
+    // awake.
+    volatile boolean mMusicActive;
+
+    static final long MUSIC_ACTIVE_POLL_MS = 1000;
+
+    final Runnable mUpdateMusicActive = new Runnable() {
+        public void run() {
+            mMusicActive = isMusicActive();
+            mHandler.removeCallbacks(this);
+            if (!mScreenOn) {
+                mHandler.postDelayed(this, MUSIC_ACTIVE_POLL_MS);
+            }
+        }
+    };
+
+    // Window type to layer lookup, built in init().
+    WindowLayerTable mLayerTable;
+
     class SettingsObserver extends ContentObserver {
         SettingsObserver(Handler handler) {
             super(handler);
@@ -295,6 +427,8 @@ public class PhoneWindowManager implements WindowManagerPolicy {
                     Settings.Secure.DEFAULT_INPUT_METHOD), false, this);
             resolver.registerContentObserver(Settings.System.getUriFor(
                     "fancy_rotation_anim"), false, this);
+            resolver.registerContentObserver(Settings.System.getUriFor(
+                    Settings.System.HAPTIC_FEEDBACK_ENABLED), false, this);
             updateSettings();
         }
 
@@ -484,11 +618,21 @@ public class PhoneWindowManager implements WindowManagerPolicy {
         mContext = context;
         mWindowManager = windowManager;
         mPowerManager = powerManager;
+        mLayerTable = new WindowLayerTable(new WindowLayerTable.LayerMapper() {
+            public int mapWindowType(int type) {
+                return mapWindowTypeToLayer(type);
+            }
+            public int mapSubWindowType(int type) {
+                return mapSubWindowTypeToLayer(type);
+            }
+        });
         mKeyguardMediator = new KeyguardViewMediator(context, this, powerManager);
         mHandler = new Handler();
         mOrientationListener = new MyOrientationListener(mContext);
         SettingsObserver settingsObserver = new SettingsObserver(mHandler);
         settingsObserver.observe();
+        initKeyRoutes();
+        mActionExecutor = new PolicyActionExecutor();
         mShortcutManager = new ShortcutManager(context, mHandler);
         mShortcutManager.observe();
         mHomeIntent =  new Intent(Intent.ACTION_MAIN, null);
@@ -534,6 +678,8 @@ public class PhoneWindowManager implements WindowManagerPolicy {
             mDockMode = intent.getIntExtra(Intent.EXTRA_DOCK_STATE,
                     Intent.EXTRA_DOCK_STATE_UNDOCKED);
         }
+        mStartingWindowCache = new StartingWindowCache(context);
+        PolicyDump.register(context, TAG, this);
         mVibrator = new Vibrator();
         mLongPressVibePattern = getLongIntArray(mContext.getResources(),
                 com.android.internal.R.array.config_longPressVibePattern);
@@ -545,6 +691,11 @@ public class PhoneWindowManager implements WindowManagerPolicy {
                 com.android.internal.R.array.config_safeModeDisabledVibePattern);
         mSafeModeEnabledVibePattern = getLongIntArray(mContext.getResources(),
                 com.android.internal.R.array.config_safeModeEnabledVibePattern);
+        if (SystemProperties.getBoolean("debug.policy.layout_stats", false)) {
+            mLayoutStats = new LayoutStats();
+        }
+        mIncrementalLayout = SystemProperties.getBoolean(
+                "debug.policy.incremental_layout", true);
     }
 
     public void updateSettings() {
@@ -561,6 +712,8 @@ public class PhoneWindowManager implements WindowManagerPolicy {
                     Settings.Secure.INCALL_POWER_BUTTON_BEHAVIOR_DEFAULT);
             mFancyRotationAnimation = Settings.System.getInt(resolver,
                     "fancy_rotation_anim", 0) != 0 ? 0x80 : 0;
+            mHapticFeedbackEnabled = Settings.System.getInt(resolver,
+                    Settings.System.HAPTIC_FEEDBACK_ENABLED, 0) != 0;
             int accelerometerDefault = Settings.System.getInt(resolver,
                     Settings.System.ACCELEROMETER_ROTATION, DEFAULT_ACCELEROMETER_ROTATION);
             if (mAccelerometerDefault != accelerometerDefault) {
@@ -741,6 +894,12 @@ public class PhoneWindowManager implements WindowManagerPolicy {
     }
     
     public void dispatchedPointerEventLw(MotionEvent ev, int targetX, int targetY) {
+        final long start = System.nanoTime();
+        doDispatchedPointerEventLw(ev, targetX, targetY);
+        mPointerEventLatency.record(0, start);
+    }
+
+    void doDispatchedPointerEventLw(MotionEvent ev, int targetX, int targetY) {
         if (mPointerLocationView == null) {
             return;
         }
@@ -756,6 +915,28 @@ public class PhoneWindowManager implements WindowManagerPolicy {
     
     /** {@inheritDoc} */
     public int windowTypeToLayerLw(int type) {
+        final int layer = mLayerTable.getWindowLayer(type);
+        if (layer != WindowLayerTable.UNKNOWN) {
+            return layer;
+        }
+        Log.e(TAG, "Unknown window type: " + type);
+        return APPLICATION_LAYER;
+    }
+
+    /** {@inheritDoc} */
+    public int subWindowTypeToLayerLw(int type) {
+        final int layer = mLayerTable.getSubWindowLayer(type);
+        if (layer != WindowLayerTable.UNKNOWN) {
+            return layer;
+        }
+        Log.e(TAG, "Unknown sub-window type: " + type);
+        return 0;
+    }
+
+    /**
+     * The layer assignment {@link #mLayerTable} is built from.
+     */
+    static int mapWindowTypeToLayer(int type) {
         if (type >= FIRST_APPLICATION_WINDOW && type <= LAST_APPLICATION_WINDOW) {
             return APPLICATION_LAYER;
         }
@@ -791,12 +972,13 @@ public class PhoneWindowManager implements WindowManagerPolicy {
         case TYPE_WALLPAPER:
             return WALLPAPER_LAYER;
         }
-        Log.e(TAG, "Unknown window type: " + type);
-        return APPLICATION_LAYER;
+        return WindowLayerTable.UNKNOWN;
     }
 
-    /** {@inheritDoc} */
-    public int subWindowTypeToLayerLw(int type) {
+    /**
+     * The sub-layer assignment {@link #mLayerTable} is built from.
+     */
+    static int mapSubWindowTypeToLayer(int type) {
         switch (type) {
         case TYPE_APPLICATION_PANEL:
         case TYPE_APPLICATION_ATTACHED_DIALOG:
@@ -808,8 +990,7 @@ public class PhoneWindowManager implements WindowManagerPolicy {
         case TYPE_APPLICATION_SUB_PANEL:
             return APPLICATION_SUB_PANEL_SUBLAYER;
         }
-        Log.e(TAG, "Unknown sub-window type: " + type);
-        return 0;
+        return WindowLayerTable.UNKNOWN;
     }
 
     public int getMaxWallpaperLayer() {
@@ -835,58 +1016,70 @@ public class PhoneWindowManager implements WindowManagerPolicy {
         if (packageName == null) {
             return null;
         }
+
+        // If we already know this theme has no preview, don't bother
+        // creating its context and window.
+        final StartingWindowCache.Entry cached = mStartingWindowCache.get(packageName, theme);
+        if (cached != null && !cached.showsPreview()) {
+            return null;
+        }
         
+        final long startNanos = System.nanoTime();
         try {
-        	Context context = mContext;
-        	boolean setTheme = false;
-        	//Log.i(TAG, "addStartingWindow " + packageName + ": nonLocalizedLabel="
-        	//        + nonLocalizedLabel + " theme=" + Integer.toHexString(theme));
-        	if (theme != 0 || labelRes != 0) {
-        	    try {
-        	        context = context.createPackageContext(packageName, 0);
-        	        if (theme != 0) {
-        	            context.setTheme(theme);
-        	            setTheme = true;
-        	        }
-        	    } catch (PackageManager.NameNotFoundException e) {
-                    // Ignore
+            // A pooled window already has its context, theme and decor.
+            StartingWindowCache.PooledWindow pooled = mStartingWindowCache.takeWindow(
+                    packageName, theme, mContext.getResources().getConfiguration());
+            final boolean fromPool = pooled != null;
+            Context context;
+            if (fromPool) {
+                context = pooled.window.getContext();
+            } else {
+                context = mContext;
+                boolean setTheme = false;
+                //Log.i(TAG, "addStartingWindow " + packageName + ": nonLocalizedLabel="
+                //        + nonLocalizedLabel + " theme=" + Integer.toHexString(theme));
+                if (theme != 0 || labelRes != 0) {
+                    try {
+                        context = context.createPackageContext(packageName, 0);
+                        if (theme != 0) {
+                            context.setTheme(theme);
+                            setTheme = true;
+                        }
+                    } catch (PackageManager.NameNotFoundException e) {
+                        // Ignore
+                    }
                 }
-        	}
-        	if (!setTheme) {
-        	    context.setTheme(com.android.internal.R.style.Theme);
-        	}
-        	
-            Window win = PolicyManager.makeNewWindow(context);
-            if (win.getWindowStyle().getBoolean(
-                    com.android.internal.R.styleable.Window_windowDisablePreview, false)) {
+                if (!setTheme) {
+                    context.setTheme(com.android.internal.R.style.Theme);
+                }
+            }
+
+            final StartingWindowCache.Entry style = cached != null
+                    ? cached : mStartingWindowCache.resolve(context, packageName, theme);
+            if (!style.showsPreview()) {
                 return null;
             }
-            
+
+            Window win;
+            if (fromPool) {
+                win = pooled.window;
+            } else {
+                win = makeStartingWindow(context);
+                // Only windows with a context of their own can be reused
+                // for the next launch of the same package and theme.
+                if (context != mContext) {
+                    pooled = new StartingWindowCache.PooledWindow(packageName, theme, win,
+                            mContext.getResources().getConfiguration());
+                }
+            }
+
             Resources r = context.getResources();
             win.setTitle(r.getText(labelRes, nonLocalizedLabel));
-    
-            win.setType(
-                WindowManager.LayoutParams.TYPE_APPLICATION_STARTING);
-            // Force the window flags: this is a fake window, so it is not really
-            // touchable or focusable by the user.  We also add in the ALT_FOCUSABLE_IM
-            // flag because we do know that the next window will take input
-            // focus, so we want to get the IME window up on top of us right away.
-            win.setFlags(
-                WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE|
-                WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE|
-                WindowManager.LayoutParams.FLAG_ALT_FOCUSABLE_IM,
-                WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE|
-                WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE|
-                WindowManager.LayoutParams.FLAG_ALT_FOCUSABLE_IM);
-    
-            win.setLayout(WindowManager.LayoutParams.MATCH_PARENT,
-                                WindowManager.LayoutParams.MATCH_PARENT);
-    
+
             final WindowManager.LayoutParams params = win.getAttributes();
             params.token = appToken;
             params.packageName = packageName;
-            params.windowAnimations = win.getWindowStyle().getResourceId(
-                    com.android.internal.R.styleable.Window_windowAnimationStyle, 0);
+            params.windowAnimations = style.windowAnimations;
             params.setTitle("Starting " + packageName);
 
             WindowManagerImpl wm = (WindowManagerImpl)
@@ -895,11 +1088,9 @@ public class PhoneWindowManager implements WindowManagerPolicy {
 
             if (win.isFloating()) {
                 // Whoops, there is no way to display an animation/preview
-                // of such a thing!  After all that work...  let's skip it.
-                // (Note that we must do this here because it is in
-                // getDecorView() where the theme is evaluated...  maybe
-                // we should peek the floating attribute from the theme
-                // earlier.)
+                // of such a thing!  The cache peeks the floating attribute
+                // from the theme up front, so this is only a backstop in
+                // case getDecorView() evaluates the theme differently.
                 return null;
             }
             
@@ -909,10 +1100,17 @@ public class PhoneWindowManager implements WindowManagerPolicy {
                 + (view.getParent() != null ? view : null));
 
             wm.addView(view, params);
+            mStartingWindowLatency.record(fromPool ? 1 : 0, startNanos);
 
             // Only return the view if it was successfully added to the
             // window manager... which we can tell by it having a parent.
-            return view.getParent() != null ? view : null;
+            if (view.getParent() == null) {
+                return null;
+            }
+            if (pooled != null) {
+                mStartingWindowCache.showing(pooled);
+            }
+            return view;
         } catch (WindowManagerImpl.BadTokenException e) {
             // ignore
             Log.w(TAG, appToken + " already running, starting window not displayed");
@@ -926,6 +1124,60 @@ public class PhoneWindowManager implements WindowManagerPolicy {
         return null;
     }
 
+    /**
+     * Create a starting window for a context that has the starting window
+     * theme, without building its decor.
+     */
+    Window makeStartingWindow(Context context) {
+        Window win = PolicyManager.makeNewWindow(context);
+        win.setType(
+            WindowManager.LayoutParams.TYPE_APPLICATION_STARTING);
+        // Force the window flags: this is a fake window, so it is not really
+        // touchable or focusable by the user.  We also add in the ALT_FOCUSABLE_IM
+        // flag because we do know that the next window will take input
+        // focus, so we want to get the IME window up on top of us right away.
+        win.setFlags(
+            WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE|
+            WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE|
+            WindowManager.LayoutParams.FLAG_ALT_FOCUSABLE_IM,
+            WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE|
+            WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE|
+            WindowManager.LayoutParams.FLAG_ALT_FOCUSABLE_IM);
+
+        win.setLayout(WindowManager.LayoutParams.MATCH_PARENT,
+                            WindowManager.LayoutParams.MATCH_PARENT);
+        return win;
+    }
+
+    /**
+     * Resolve the starting window attributes of the home activity, the most
+     * launched one, so that its first launch doesn't have to.  Its window
+     * isn't built here: the decor belongs on the thread that adds it, so
+     * the first launch builds it and the pool keeps it from then on.
+     */
+    void warmStartingWindows() {
+        final ResolveInfo ri = mContext.getPackageManager().resolveActivity(mHomeIntent, 0);
+        if (ri == null || ri.activityInfo == null) {
+            return;
+        }
+        final ActivityInfo ai = ri.activityInfo;
+        final int theme = ai.getThemeResource();
+        if (theme == 0 && ai.labelRes == 0) {
+            // shown in our own context, which isn't pooled
+            return;
+        }
+        try {
+            Context context = mContext.createPackageContext(ai.packageName, 0);
+            context.setTheme(theme != 0 ? theme : com.android.internal.R.style.Theme);
+            mStartingWindowCache.resolve(context, ai.packageName, theme);
+            if (localLOGV) Log.v(TAG, "Warmed starting window for " + ai.packageName);
+        } catch (PackageManager.NameNotFoundException e) {
+            // Ignore
+        } catch (RuntimeException e) {
+            Log.w(TAG, "failed warming starting window for " + ai.packageName, e);
+        }
+    }
+
     /** {@inheritDoc} */
     public void removeStartingWindow(IBinder appToken, View window) {
         // RuntimeException e = new RuntimeException();
@@ -937,6 +1189,15 @@ public class PhoneWindowManager implements WindowManagerPolicy {
         if (window != null) {
             WindowManagerImpl wm = (WindowManagerImpl) mContext.getSystemService(Context.WINDOW_SERVICE);
             wm.removeView(window);
+            // The old root only lets go of the view when it handles the DIE
+            // message removeView() just queued on this thread, so pool the
+            // window after that.
+            final View view = window;
+            new Handler().post(new Runnable() {
+                public void run() {
+                    mStartingWindowCache.recycle(view);
+                }
+            });
         }
     }
 
@@ -977,6 +1238,7 @@ public class PhoneWindowManager implements WindowManagerPolicy {
 
     /** {@inheritDoc} */
     public void removeWindowLw(WindowState win) {
+        mLayoutCache.remove(win);
         if (mStatusBar == win) {
             mStatusBar = null;
         }
@@ -1008,12 +1270,26 @@ public class PhoneWindowManager implements WindowManagerPolicy {
                 com.android.internal.R.anim.lock_screen_behind_enter);
     }
     
+    static final ServiceHandle<ITelephony> sPhoneService =
+            new ServiceHandle<ITelephony>(Context.TELEPHONY_SERVICE) {
+        ITelephony asInterface(IBinder binder) {
+            return ITelephony.Stub.asInterface(binder);
+        }
+    };
+
+    static final ServiceHandle<IAudioService> sAudioService =
+            new ServiceHandle<IAudioService>(Context.AUDIO_SERVICE) {
+        IAudioService asInterface(IBinder binder) {
+            return IAudioService.Stub.asInterface(binder);
+        }
+    };
+
     static ITelephony getPhoneInterface() {
-        return ITelephony.Stub.asInterface(ServiceManager.checkService(Context.TELEPHONY_SERVICE));
+        return sPhoneService.get();
     }
 
     static IAudioService getAudioInterface() {
-        return IAudioService.Stub.asInterface(ServiceManager.checkService(Context.AUDIO_SERVICE));
+        return sAudioService.get();
     }
 
     boolean keyguardOn() {
@@ -1028,6 +1304,14 @@ public class PhoneWindowManager implements WindowManagerPolicy {
     /** {@inheritDoc} */
     public boolean interceptKeyTi(WindowState win, int code, int metaKeys, boolean down, 
             int repeatCount, int flags) {
+        final long start = System.nanoTime();
+        final boolean result = doInterceptKeyTi(win, code, metaKeys, down, repeatCount, flags);
+        mInterceptKeyTiLatency.record(code, start);
+        return result;
+    }
+
+    boolean doInterceptKeyTi(WindowState win, int code, int metaKeys, boolean down,
+            int repeatCount, int flags) {
         boolean keyguardOn = keyguardOn();
 
         if (false) {
@@ -1120,23 +1404,11 @@ public class PhoneWindowManager implements WindowManagerPolicy {
 
             if (down && repeatCount == 0) {
                 if (mEnableShiftMenuBugReports && (metaKeys & chordBug) == chordBug) {
-                    Intent intent = new Intent(Intent.ACTION_BUG_REPORT);
-                    mContext.sendOrderedBroadcast(intent, null);
+                    mActionExecutor.execute(mSendBugReport);
                     return true;
                 } else if (SHOW_PROCESSES_ON_ALT_MENU &&
                         (metaKeys & KeyEvent.META_ALT_ON) == KeyEvent.META_ALT_ON) {
-                    Intent service = new Intent();
-                    service.setClassName(mContext, "com.android.server.LoadAverageService");
-                    ContentResolver res = mContext.getContentResolver();
-                    boolean shown = Settings.System.getInt(
-                            res, Settings.System.SHOW_PROCESSES, 0) != 0;
-                    if (!shown) {
-                        mContext.startService(service);
-                    } else {
-                        mContext.stopService(service);
-                    }
-                    Settings.System.putInt(
-                            res, Settings.System.SHOW_PROCESSES, shown ? 0 : 1);
+                    mActionExecutor.execute(mToggleShowProcesses);
                     return true;
                 }
             }
@@ -1177,8 +1449,7 @@ public class PhoneWindowManager implements WindowManagerPolicy {
             if (down && repeatCount == 0 && !keyguardOn) {
                 Intent shortcutIntent = mShortcutManager.getIntent(code, metaKeys);
                 if (shortcutIntent != null) {
-                    shortcutIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                    mContext.startActivity(shortcutIntent);
+                    mActionExecutor.execute(new StartActivity(shortcutIntent));
                     
                     /*
                      * We launched an app, so the up-event of the search key
@@ -1193,6 +1464,46 @@ public class PhoneWindowManager implements WindowManagerPolicy {
         return false;
     }
 
+    final Runnable mSendBugReport = new Runnable() {
+        public void run() {
+            mContext.sendOrderedBroadcast(new Intent(Intent.ACTION_BUG_REPORT), null);
+        }
+    };
+
+    final Runnable mToggleShowProcesses = new Runnable() {
+        public void run() {
+            Intent service = new Intent();
+            service.setClassName(mContext, "com.android.server.LoadAverageService");
+            ContentResolver res = mContext.getContentResolver();
+            boolean shown = Settings.System.getInt(
+                    res, Settings.System.SHOW_PROCESSES, 0) != 0;
+            if (!shown) {
+                mContext.startService(service);
+            } else {
+                mContext.stopService(service);
+            }
+            Settings.System.putInt(
+                    res, Settings.System.SHOW_PROCESSES, shown ? 0 : 1);
+        }
+    };
+
+    class StartActivity implements Runnable {
+        final Intent mIntent;
+
+        StartActivity(Intent intent) {
+            mIntent = intent;
+        }
+
+        public void run() {
+            mContext.startActivity(mIntent);
+        }
+
+        @Override
+        public String toString() {
+            return "StartActivity{" + mIntent + "}";
+        }
+    }
+
     /**
      * A home key -> launch home action was detected.  Take the appropriate action
      * given the situation with the keyguard.
@@ -1240,6 +1551,8 @@ public class PhoneWindowManager implements WindowManagerPolicy {
     
     /** {@inheritDoc} */
     public void beginLayoutLw(int displayWidth, int displayHeight) {
+        final LayoutStats stats = mLayoutStats;
+        if (stats != null) stats.beginPass();
         mW = displayWidth;
         mH = displayHeight;
         mDockLeft = mContentLeft = mCurLeft = 0;
@@ -1268,6 +1581,7 @@ public class PhoneWindowManager implements WindowManagerPolicy {
                         + mContentBottom + " mCurBottom=" + mCurBottom);
             }
         }
+        if (stats != null) stats.endBeginPass();
     }
 
     void setAttachedWindowFrames(WindowState win, int fl, int sim,
@@ -1326,6 +1640,14 @@ public class PhoneWindowManager implements WindowManagerPolicy {
             return;
         }
 
+        final LayoutStats stats = mLayoutStats;
+        if (stats != null) stats.beginWindow();
+        layoutWindowFramesLw(win, attrs, attached);
+        if (stats != null) stats.endWindow();
+    }
+
+    void layoutWindowFramesLw(WindowState win, WindowManager.LayoutParams attrs,
+            WindowState attached) {
         if (false) {
             if ("com.google.android.youtube".equals(attrs.packageName)
                     && attrs.type == WindowManager.LayoutParams.TYPE_APPLICATION_PANEL) {
@@ -1442,6 +1764,21 @@ public class PhoneWindowManager implements WindowManagerPolicy {
             }
         }
         
+        if (mIncrementalLayout && attrs.type != TYPE_INPUT_METHOD
+                && attrs.width == WindowManager.LayoutParams.MATCH_PARENT
+                && attrs.height == WindowManager.LayoutParams.MATCH_PARENT) {
+            LayoutCacheEntry entry = mLayoutCache.get(win);
+            if (entry == null) {
+                entry = new LayoutCacheEntry();
+                mLayoutCache.put(win, entry);
+            } else if (entry.matches(attrs, pf, df, cf, vf)) {
+                mLayoutCacheHits++;
+                return;
+            }
+            mLayoutCacheMisses++;
+            entry.set(attrs, pf, df, cf, vf);
+        }
+
         win.computeFrameLw(pf, df, cf, vf);
         
         // Dock windows carve out the bottom of the screen, so normal windows
@@ -1465,6 +1802,7 @@ public class PhoneWindowManager implements WindowManagerPolicy {
 
     /** {@inheritDoc} */
     public int finishLayoutLw() {
+        if (mLayoutStats != null) mLayoutStats.endPass();
         return 0;
     }
 
@@ -1615,6 +1953,22 @@ public class PhoneWindowManager implements WindowManagerPolicy {
 
     /** {@inheritDoc} */
     public boolean preprocessInputEventTq(RawInputEvent event) {
+        final long start = System.nanoTime();
+        final boolean result = doPreprocessInputEventTq(event);
+        mPreprocessLatency.record(latencySlot(event), start);
+        return result;
+    }
+
+    /**
+     * @return The latency histogram row for a raw event: its keycode for a
+     *   key, the overflow row for anything else, whose codes are axes or
+     *   switches rather than keys.
+     */
+    static int latencySlot(RawInputEvent event) {
+        return event.type == RawInputEvent.EV_KEY ? event.keycode : -1;
+    }
+
+    boolean doPreprocessInputEventTq(RawInputEvent event) {
         switch (event.type) {
             case RawInputEvent.EV_SW:
                 if (event.keycode == RawInputEvent.SW_LID) {
@@ -1671,20 +2025,12 @@ public class PhoneWindowManager implements WindowManagerPolicy {
 
 
     /**
-     * @return Whether a telephone call is in progress right now.
+     * @return Whether a telephone call is in progress, as of the last phone
+     *   state broadcast.  For interceptKeyTq(), which shouldn't wait on the
+     *   phone process.
      */
-    boolean isInCall() {
-        final ITelephony phone = getPhoneInterface();
-        if (phone == null) {
-            Log.w(TAG, "couldn't get ITelephony reference");
-            return false;
-        }
-        try {
-            return phone.isOffhook();
-        } catch (RemoteException e) {
-            Log.w(TAG, "ITelephony.isOffhhook threw RemoteException " + e);
-            return false;
-        }
+    boolean isInCallTq() {
+        return mKeyguardMediator.isPhoneOffhookTq();
     }
 
     /**
@@ -1726,23 +2072,53 @@ public class PhoneWindowManager implements WindowManagerPolicy {
         }
     }
     
-    static boolean isMediaKey(int code) {
-        if (code == KeyEvent.KEYCODE_HEADSETHOOK || 
-                code == KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE ||
-                code == KeyEvent.KEYCODE_MEDIA_STOP || 
-                code == KeyEvent.KEYCODE_MEDIA_NEXT ||
-                code == KeyEvent.KEYCODE_MEDIA_PREVIOUS || 
-                code == KeyEvent.KEYCODE_MEDIA_REWIND ||
-                code == KeyEvent.KEYCODE_MEDIA_FAST_FORWARD) {
-            return true;
+    /**
+     * Fill in the keycode routing used by {@link #interceptKeyTq}.  Devices
+     * with extra hardware keys that should behave like one of the standard
+     * ones can override this and add more entries with {@link #setKeyRoute}.
+     */
+    protected void initKeyRoutes() {
+        setKeyRoute(KeyEvent.KEYCODE_POWER, KEY_ROUTE_POWER);
+        setKeyRoute(KeyEvent.KEYCODE_ENDCALL, KEY_ROUTE_ENDCALL);
+        setKeyRoute(KeyEvent.KEYCODE_CALL, KEY_ROUTE_CALL);
+        setKeyRoute(KeyEvent.KEYCODE_VOLUME_UP, KEY_ROUTE_VOLUME);
+        setKeyRoute(KeyEvent.KEYCODE_VOLUME_DOWN, KEY_ROUTE_VOLUME);
+        setKeyRoute(KeyEvent.KEYCODE_HEADSETHOOK, KEY_ROUTE_MEDIA);
+        setKeyRoute(KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE, KEY_ROUTE_MEDIA);
+        setKeyRoute(KeyEvent.KEYCODE_MEDIA_STOP, KEY_ROUTE_MEDIA);
+        setKeyRoute(KeyEvent.KEYCODE_MEDIA_NEXT, KEY_ROUTE_MEDIA);
+        setKeyRoute(KeyEvent.KEYCODE_MEDIA_PREVIOUS, KEY_ROUTE_MEDIA);
+        setKeyRoute(KeyEvent.KEYCODE_MEDIA_REWIND, KEY_ROUTE_MEDIA);
+        setKeyRoute(KeyEvent.KEYCODE_MEDIA_FAST_FORWARD, KEY_ROUTE_MEDIA);
+    }
+
+    protected final void setKeyRoute(int keycode, int route) {
+        if (keycode < 0 || keycode >= mKeyRoutes.length) {
+            throw new IllegalArgumentException("keycode out of range: " + keycode);
+        }
+        mKeyRoutes[keycode] = (byte) route;
+    }
+
+    final int getKeyRoute(int keycode) {
+        if (keycode < 0 || keycode >= mKeyRoutes.length) {
+            return KEY_ROUTE_NONE;
         }
-        return false;    
+        return mKeyRoutes[keycode];
     }
- 
+
     /** {@inheritDoc} */
     public int interceptKeyTq(RawInputEvent event, boolean screenIsOn) {
+        final long start = System.nanoTime();
+        final int result = doInterceptKeyTq(event, screenIsOn);
+        mInterceptKeyTqLatency.record(latencySlot(event), start);
+        return result;
+    }
+
+    int doInterceptKeyTq(RawInputEvent event, boolean screenIsOn) {
         int result = ACTION_PASS_TO_USER;
         final boolean isWakeKey = isWakeKeyTq(event);
+        final int route = event.type == RawInputEvent.EV_KEY
+                ? getKeyRoute(event.keycode) : KEY_ROUTE_NONE;
         // If screen is off then we treat the case where the keyguard is open but hidden
         // the same as if it were open and in front.
         // This will prevent any keys other than the power button from waking the screen
@@ -1772,15 +2148,18 @@ public class PhoneWindowManager implements WindowManagerPolicy {
                     // turn on the screen depending on whether the key is
                     // appropriate.
                     if (!mKeyguardMediator.onWakeKeyWhenKeyguardShowingTq(event.keycode)
-                            && (event.keycode == KeyEvent.KEYCODE_VOLUME_DOWN
-                                || event.keycode == KeyEvent.KEYCODE_VOLUME_UP)) {
+                            && route == KEY_ROUTE_VOLUME) {
                         // when keyguard is showing and screen off, we need
                         // to handle the volume key for calls and  music here
-                        if (isInCall()) {
+                        if (isInCallTq()) {
                             handleVolumeKey(AudioManager.STREAM_VOICE_CALL, event.keycode);
-                        } else if (isMusicActive()) {
+                        } else if (mMusicActive) {
+                            // As of the last poll; music that started since
+                            // misses at most this press.
                             handleVolumeKey(AudioManager.STREAM_MUSIC, event.keycode);
                         }
+                        // have the answer fresh for the next press
+                        mHandler.post(mUpdateMusicActive);
                     }
                 }
             }
@@ -1789,9 +2168,7 @@ public class PhoneWindowManager implements WindowManagerPolicy {
             // then handle the volume key ourselves.
             // This is necessary because the phone app will disable the keyguard
             // when the proximity sensor is in use.
-            if (isInCall() && event.type == RawInputEvent.EV_KEY &&
-                     (event.keycode == KeyEvent.KEYCODE_VOLUME_DOWN
-                                || event.keycode == KeyEvent.KEYCODE_VOLUME_UP)) {
+            if (route == KEY_ROUTE_VOLUME && isInCallTq()) {
                 result &= ~ACTION_PASS_TO_USER;
                 handleVolumeKey(AudioManager.STREAM_VOICE_CALL, event.keycode);
             }
@@ -1808,8 +2185,7 @@ public class PhoneWindowManager implements WindowManagerPolicy {
         boolean down = event.value != 0;
 
         if (type == RawInputEvent.EV_KEY) {
-            if (code == KeyEvent.KEYCODE_ENDCALL
-                    || code == KeyEvent.KEYCODE_POWER) {
+            if (route == KEY_ROUTE_ENDCALL || route == KEY_ROUTE_POWER) {
                 if (down) {
                     boolean handled = false;
                     boolean hungUp = false;
@@ -1819,9 +2195,9 @@ public class PhoneWindowManager implements WindowManagerPolicy {
                     ITelephony phoneServ = getPhoneInterface();
                     if (phoneServ != null) {
                         try {
-                            if (code == KeyEvent.KEYCODE_ENDCALL) {
+                            if (route == KEY_ROUTE_ENDCALL) {
                                 handled = hungUp = phoneServ.endCall();
-                            } else if (code == KeyEvent.KEYCODE_POWER) {
+                            } else {
                                 if (phoneServ.isRinging()) {
                                     // Pressing Power while there's a ringing incoming
                                     // call should silence the ringer.
@@ -1844,8 +2220,8 @@ public class PhoneWindowManager implements WindowManagerPolicy {
                     }
 
                     if (!screenIsOn
-                            || (handled && code != KeyEvent.KEYCODE_POWER)
-                            || (handled && hungUp && code == KeyEvent.KEYCODE_POWER)) {
+                            || (handled && route != KEY_ROUTE_POWER)
+                            || (handled && hungUp && route == KEY_ROUTE_POWER)) {
                         mShouldTurnOffOnKeyUp = false;
                     } else {
                         // only try to turn off the screen if we didn't already hang up
@@ -1859,7 +2235,7 @@ public class PhoneWindowManager implements WindowManagerPolicy {
                     if (mShouldTurnOffOnKeyUp) {
                         mShouldTurnOffOnKeyUp = false;
                         boolean gohome, sleeps;
-                        if (code == KeyEvent.KEYCODE_ENDCALL) {
+                        if (route == KEY_ROUTE_ENDCALL) {
                             gohome = (mEndcallBehavior
                                       & Settings.System.END_BUTTON_BEHAVIOR_HOME) != 0;
                             sleeps = (mEndcallBehavior
@@ -1881,7 +2257,7 @@ public class PhoneWindowManager implements WindowManagerPolicy {
                         result &= ~ACTION_PASS_TO_USER;
                     }
                 }
-            } else if (isMediaKey(code)) {
+            } else if (route == KEY_ROUTE_MEDIA) {
                 // This key needs to be handled even if the screen is off.
                 // If others need to be handled while it's off, this is a reasonable
                 // pattern to follow.
@@ -1893,9 +2269,11 @@ public class PhoneWindowManager implements WindowManagerPolicy {
                             down ? KeyEvent.ACTION_DOWN : KeyEvent.ACTION_UP,
                             code, 0);
                     mBroadcastWakeLock.acquire();
-                    mHandler.post(new PassHeadsetKey(keyEvent));
+                    if (!mActionExecutor.execute(new PassHeadsetKey(keyEvent))) {
+                        mBroadcastWakeLock.release();
+                    }
                 }
-            } else if (code == KeyEvent.KEYCODE_CALL) {
+            } else if (route == KEY_ROUTE_CALL) {
                 // If an incoming call is ringing, answer it!
                 // (We handle this key here, rather than in the InCallScreen, to make
                 // sure we'll respond to the key even if the InCallScreen hasn't come to
@@ -1923,8 +2301,7 @@ public class PhoneWindowManager implements WindowManagerPolicy {
                         Log.w(TAG, "CALL button: RemoteException from getPhoneInterface()", ex);
                     }
                 }
-            } else if ((code == KeyEvent.KEYCODE_VOLUME_UP)
-                       || (code == KeyEvent.KEYCODE_VOLUME_DOWN)) {
+            } else if (route == KEY_ROUTE_VOLUME) {
                 // If an incoming call is ringing, either VOLUME key means
                 // "silence ringer".  We handle these keys here, rather than
                 // in the InCallScreen, to make sure we'll respond to them
@@ -2034,6 +2411,7 @@ public class PhoneWindowManager implements WindowManagerPolicy {
     public void screenTurnedOff(int why) {
         EventLog.writeEvent(70000, 0);
         mKeyguardMediator.onScreenTurnedOff(why);
+        mHandler.post(mUpdateMusicActive);
         synchronized (mLock) {
             mScreenOn = false;
             updateOrientationListenerLp();
@@ -2045,6 +2423,7 @@ public class PhoneWindowManager implements WindowManagerPolicy {
     public void screenTurnedOn() {
         EventLog.writeEvent(70000, 1);
         mKeyguardMediator.onScreenTurnedOn();
+        mHandler.removeCallbacks(mUpdateMusicActive);
         synchronized (mLock) {
             mScreenOn = true;
             updateOrientationListenerLp();
@@ -2187,6 +2566,11 @@ public class PhoneWindowManager implements WindowManagerPolicy {
                 }
             });
         }
+        mHandler.post(new Runnable() {
+            public void run() {
+                warmStartingWindows();
+            }
+        });
     }
    
     /** {@inheritDoc} */
@@ -2356,9 +2740,7 @@ public class PhoneWindowManager implements WindowManagerPolicy {
     }
 
     public boolean performHapticFeedbackLw(WindowState win, int effectId, boolean always) {
-        final boolean hapticsDisabled = Settings.System.getInt(mContext.getContentResolver(),
-                Settings.System.HAPTIC_FEEDBACK_ENABLED, 0) == 0;
-        if (!always && (hapticsDisabled || mKeyguardMediator.isShowingAndNotHidden())) {
+        if (!always && (!mHapticFeedbackEnabled || mKeyguardMediator.isShowingAndNotHidden())) {
             return false;
         }
         long[] pattern = null;
@@ -2381,6 +2763,15 @@ public class PhoneWindowManager implements WindowManagerPolicy {
             default:
                 return false;
         }
+        final long now = SystemClock.uptimeMillis();
+        synchronized (mLock) {
+            if (pattern == mLastHapticPattern && now - mLastHapticTime < HAPTIC_COLLAPSE_MS) {
+                mHapticCollapsed++;
+                return true;
+            }
+            mLastHapticPattern = pattern;
+            mLastHapticTime = now;
+        }
         if (pattern.length == 1) {
             // One-shot vibration
             mVibrator.vibrate(pattern[0]);
@@ -2409,4 +2800,53 @@ public class PhoneWindowManager implements WindowManagerPolicy {
         // disable key repeat when screen is off
         return mScreenOn;
     }
+
+    public void dump(String prefix, FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.print(prefix); pw.print("mIncrementalLayout="); pw.print(mIncrementalLayout);
+                pw.print(" cached="); pw.print(mLayoutCache.size());
+                pw.print(" hits="); pw.print(mLayoutCacheHits);
+                pw.print(" misses="); pw.println(mLayoutCacheMisses);
+        pw.print(prefix); pw.print("mHapticFeedbackEnabled="); pw.print(mHapticFeedbackEnabled);
+                pw.print(" mHapticCollapsed="); pw.println(mHapticCollapsed);
+        pw.print(prefix); pw.print("mActionExecutor: ");
+                pw.println(mActionExecutor.toShortString());
+        pw.print(prefix); pw.println(sPhoneService.toShortString());
+        pw.print(prefix); pw.println(sAudioService.toShortString());
+        mLayerTable.dump(prefix, pw);
+        mStartingWindowCache.dump(prefix, pw);
+        mStartingWindowLatency.dump(prefix, "pooled=", pw);
+        if (mLayoutStats != null) {
+            pw.print(prefix); pw.println("Layout stats:");
+            mLayoutStats.dump(prefix + "  ", pw);
+        }
+        pw.print(prefix); pw.println("Keyguard:");
+        mKeyguardMediator.dump(prefix + "  ", pw);
+        pw.print(prefix); pw.println("Input latency:");
+        mInterceptKeyTqLatency.dump(prefix + "  ", "keycode=", pw);
+        mInterceptKeyTiLatency.dump(prefix + "  ", "keycode=", pw);
+        mPreprocessLatency.dump(prefix + "  ", "code=", pw);
+        mPointerEventLatency.dump(prefix + "  ", "#", pw);
+        if (args != null) {
+            for (String arg : args) {
+                if ("reset-input-latency".equals(arg)) {
+                    resetInputLatency();
+                    pw.print(prefix); pw.println("Input latency reset.");
+                } else if ("print-loaded-classes".equals(arg)) {
+                    // read back by record-preloaded-classes.sh
+                    Debug.printLoadedClasses(0);
+                    pw.print(prefix); pw.println("Loaded classes written to the log.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Clear the input latency histograms shown by {@link #dump}.
+     */
+    public void resetInputLatency() {
+        mInterceptKeyTqLatency.reset();
+        mInterceptKeyTiLatency.reset();
+        mPreprocessLatency.reset();
+        mPointerEventLatency.reset();
+    }
 }
@@ -19,6 +19,11 @@ package com.android.internal.policy.impl;
 import android.content.Context;
 import android.util.Log;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
 import com.android.internal.policy.IPolicy;
 import com.android.internal.policy.impl.PhoneLayoutInflater;
 import com.android.internal.policy.impl.PhoneWindow;
@@ -33,6 +38,13 @@ import com.android.internal.policy.impl.PhoneWindowManager;
 public class Policy implements IPolicy {
     private static final String TAG = "PhonePolicy";
 
+    /**
+     * The list of classes to preload, packaged into the jar from
+     * preloaded-policy-classes, which record-preloaded-classes.sh generates.
+     */
+    private static final String PRELOADED_CLASSES = "preloaded-policy-classes";
+
+    // Preloaded instead if the list is missing from the jar.
     private static final String[] preload_classes = {
         "com.android.internal.policy.impl.PhoneLayoutInflater",
         "com.android.internal.policy.impl.PhoneWindow",
@@ -46,15 +58,43 @@ public class Policy implements IPolicy {
     static {
         // For performance reasons, preload some policy specific classes when
         // the policy gets loaded.
-        for (String s : preload_classes) {
+        InputStream is = Policy.class.getClassLoader().getResourceAsStream(
+                PRELOADED_CLASSES);
+        if (is == null) {
+            Log.w(TAG, "Couldn't find " + PRELOADED_CLASSES + ", preloading the built-in list");
+            for (String s : preload_classes) {
+                preloadClass(s);
+            }
+        } else {
             try {
-                Class.forName(s);
-            } catch (ClassNotFoundException ex) {
-                Log.e(TAG, "Could not preload class for phone policy: " + s);
+                BufferedReader br = new BufferedReader(new InputStreamReader(is), 256);
+                String line;
+                while ((line = br.readLine()) != null) {
+                    line = line.trim();
+                    if (line.length() == 0 || line.startsWith("#")) {
+                        continue;
+                    }
+                    preloadClass(line);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading " + PRELOADED_CLASSES, e);
+            } finally {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                }
             }
         }
     }
 
+    private static void preloadClass(String s) {
+        try {
+            Class.forName(s);
+        } catch (ClassNotFoundException ex) {
+            Log.e(TAG, "Could not preload class for phone policy: " + s);
+        }
+    }
+
     public PhoneWindow makeNewWindow(Context context) {
         return new PhoneWindow(context);
     }
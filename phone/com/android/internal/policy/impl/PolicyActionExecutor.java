@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.policy.impl;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Runs the side effects of key interception (broadcasts, activity and
+ * service starts) on a thread of its own, so that interceptKeyTq() and
+ * interceptKeyTi() only have to decide what to do.  Actions run one at a
+ * time, in the order they were posted.
+ *
+ * The queue is bounded: if the worker falls more than {@link #MAX_PENDING}
+ * actions behind, further actions are refused rather than letting key
+ * presses pile up behind a stuck broadcast.
+ */
+final class PolicyActionExecutor {
+    private static final String TAG = "PolicyActionExecutor";
+
+    static final int MAX_PENDING = 16;
+
+    private final Handler mHandler;
+
+    // protected by this
+    private int mPending;
+    private int mDropped;
+
+    PolicyActionExecutor() {
+        HandlerThread thread = new HandlerThread("PolicyActions",
+                Process.THREAD_PRIORITY_FOREGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Queue an action behind any previously queued ones.
+     *
+     * @return Whether the action was queued.  If not, the caller is
+     *   responsible for undoing anything it did in anticipation of the
+     *   action running (such as acquiring a wake lock).
+     */
+    boolean execute(final Runnable action) {
+        synchronized (this) {
+            if (mPending >= MAX_PENDING) {
+                mDropped++;
+                Log.w(TAG, "Dropping " + action + ", " + mPending + " actions pending");
+                return false;
+            }
+            mPending++;
+        }
+        mHandler.post(new Runnable() {
+            public void run() {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Failure running " + action, e);
+                } finally {
+                    synchronized (PolicyActionExecutor.this) {
+                        mPending--;
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    synchronized String toShortString() {
+        return "pending=" + mPending + " dropped=" + mDropped;
+    }
+}
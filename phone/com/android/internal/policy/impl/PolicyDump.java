@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.policy.impl;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Writes the window manager policy's dump to the log when asked with a
+ * broadcast, since the window manager doesn't call into the policy for
+ * dumpsys:
+ *
+ * <pre>
+ * adb shell am broadcast -a com.android.internal.policy.impl.DUMP_POLICY \
+ *         [--es args "reset-input-latency ..."]
+ * </pre>
+ *
+ * The args extra is split on spaces and passed to the dump.  Only senders
+ * holding {@link android.Manifest.permission#DUMP}, such as the shell, can
+ * trigger it.
+ */
+final class PolicyDump extends BroadcastReceiver {
+    static final String ACTION_DUMP_POLICY = "com.android.internal.policy.impl.DUMP_POLICY";
+    static final String EXTRA_ARGS = "args";
+
+    interface Dumpable {
+        void dump(String prefix, FileDescriptor fd, PrintWriter pw, String[] args);
+    }
+
+    private final String mTag;
+    private final Dumpable mTarget;
+
+    private PolicyDump(String tag, Dumpable target) {
+        mTag = tag;
+        mTarget = target;
+    }
+
+    /**
+     * Have the target's dump written to the log under tag whenever
+     * {@link #ACTION_DUMP_POLICY} is broadcast.
+     */
+    static void register(Context context, String tag, Dumpable target) {
+        context.registerReceiver(new PolicyDump(tag, target),
+                new IntentFilter(ACTION_DUMP_POLICY), android.Manifest.permission.DUMP, null);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final String args = intent.getStringExtra(EXTRA_ARGS);
+        final StringWriter sw = new StringWriter();
+        final PrintWriter pw = new PrintWriter(sw);
+        mTarget.dump("", null, pw, args != null ? args.trim().split(" +") : null);
+        pw.flush();
+        for (String line : sw.toString().split("\n")) {
+            Log.i(mTag, line);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.policy.impl;
+
+/**
+ * A {@link KeyguardScreen} that {@link LockPatternKeyguardView} can set aside
+ * after {@link #cleanUp()} when a configuration change replaces it, and show
+ * again if the configuration changes back.
+ */
+interface ReusableKeyguardScreen extends KeyguardScreen {
+
+    /**
+     * This screen was cleaned up and is coming back; register again for
+     * the updates {@link #cleanUp()} let go of.  It is still paused.
+     */
+    void onReuse();
+}
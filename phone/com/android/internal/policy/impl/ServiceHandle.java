@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.policy.impl;
+
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.util.Log;
+
+/**
+ * Keeps the interface to a system service once it has been looked up, so
+ * that callers on the input path don't go back to the service manager for
+ * every key press.  The cached interface is dropped when the service's
+ * process dies, and looked up again on the next call to {@link #get}.
+ */
+abstract class ServiceHandle<T> implements IBinder.DeathRecipient {
+    private static final String TAG = "ServiceHandle";
+
+    private final String mName;
+    private IBinder mBinder;
+    private T mInterface;
+    private int mLookups;
+    private int mLookupsAvoided;
+
+    ServiceHandle(String name) {
+        mName = name;
+    }
+
+    /**
+     * Wrap the raw binder, typically with the service's Stub.asInterface().
+     */
+    abstract T asInterface(IBinder binder);
+
+    /**
+     * @return The service interface, or null if the service isn't running.
+     */
+    synchronized T get() {
+        if (mInterface != null) {
+            mLookupsAvoided++;
+            return mInterface;
+        }
+        mLookups++;
+        final IBinder binder = ServiceManager.checkService(mName);
+        if (binder == null) {
+            return null;
+        }
+        final T iface = asInterface(binder);
+        try {
+            binder.linkToDeath(this, 0);
+        } catch (RemoteException e) {
+            // Already dead; hand it out this once but don't keep it.
+            return iface;
+        }
+        mBinder = binder;
+        mInterface = iface;
+        return iface;
+    }
+
+    public synchronized void binderDied() {
+        Log.w(TAG, mName + " died, will look it up again on next use");
+        if (mBinder != null) {
+            mBinder.unlinkToDeath(this, 0);
+        }
+        mBinder = null;
+        mInterface = null;
+    }
+
+    synchronized String toShortString() {
+        return mName + ": lookups=" + mLookups + " avoided=" + mLookupsAvoided
+                + (mInterface != null ? " (cached)" : "");
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.policy.impl;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Configuration;
+import android.content.res.TypedArray;
+import android.net.Uri;
+import android.view.View;
+import android.view.Window;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers, per (package, theme), the window attributes that decide how
+ * {@link PhoneWindowManager#addStartingWindow} shows a starting window, so
+ * that launching an app whose theme disables the preview or is floating
+ * doesn't build a package context and a window just to find that out.
+ *
+ * It also pools a few starting windows whose decor has already been built,
+ * so that a launch with a pooled (package, theme) only has to set the
+ * title and add the view.  Windows go back into the pool when their
+ * starting window is removed, so the pool ends up holding the most
+ * recently launched themes.  A pooled window built under a different
+ * configuration than the current one is thrown away rather than reused.
+ *
+ * Entries and pooled windows for a package are dropped when it is
+ * installed, changed or removed, and everything is dropped on a
+ * configuration change since the theme can resolve differently afterwards.
+ */
+final class StartingWindowCache {
+    private static final int MAX_ENTRIES = 32;
+    private static final int MAX_POOLED_WINDOWS = 4;
+
+    static final class Entry {
+        final String packageName;
+        final boolean disablePreview;
+        final boolean floating;
+        final int windowAnimations;
+
+        Entry(String packageName, TypedArray windowStyle) {
+            this.packageName = packageName;
+            disablePreview = windowStyle.getBoolean(
+                    com.android.internal.R.styleable.Window_windowDisablePreview, false);
+            floating = windowStyle.getBoolean(
+                    com.android.internal.R.styleable.Window_windowIsFloating, false);
+            windowAnimations = windowStyle.getResourceId(
+                    com.android.internal.R.styleable.Window_windowAnimationStyle, 0);
+        }
+
+        boolean showsPreview() {
+            return !disablePreview && !floating;
+        }
+    }
+
+    /**
+     * A starting window that can be pooled: its decor view has been built
+     * in a package context with the starting window theme.
+     */
+    static final class PooledWindow {
+        final String packageName;
+        final int theme;
+        final Window window;
+        // what the decor was built under
+        final Configuration config;
+
+        PooledWindow(String packageName, int theme, Window window, Configuration config) {
+            this.packageName = packageName;
+            this.theme = theme;
+            this.window = window;
+            this.config = new Configuration(config);
+        }
+    }
+
+    // protected by this; in access order, for the LRU eviction
+    private final LinkedHashMap<String, Entry> mEntries
+            = new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private int mHits;
+    private int mMisses;
+    private int mSkipped;
+
+    // protected by this; idle windows, at most one per (package, theme)
+    private final LinkedHashMap<String, PooledWindow> mPool
+            = new LinkedHashMap<String, PooledWindow>(MAX_POOLED_WINDOWS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PooledWindow> eldest) {
+            return size() > MAX_POOLED_WINDOWS;
+        }
+    };
+    // protected by this; pooled windows that are on screen, by decor view
+    private final HashMap<View, PooledWindow> mShowing = new HashMap<View, PooledWindow>();
+    private int mPoolHits;
+    private int mPoolMisses;
+    private int mPoolStale;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final String action = intent.getAction();
+            if (Intent.ACTION_CONFIGURATION_CHANGED.equals(action)) {
+                clear();
+            } else if (Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE.equals(action)
+                    || Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE.equals(action)) {
+                final String[] packages = intent.getStringArrayExtra(
+                        Intent.EXTRA_CHANGED_PACKAGE_LIST);
+                if (packages == null) {
+                    clear();
+                    return;
+                }
+                for (String packageName : packages) {
+                    removePackage(packageName);
+                }
+            } else {
+                final Uri data = intent.getData();
+                if (data != null) {
+                    removePackage(data.getSchemeSpecificPart());
+                }
+            }
+        }
+    };
+
+    StartingWindowCache(Context context) {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        context.registerReceiver(mReceiver, filter);
+        filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        filter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+        filter.addAction(Intent.ACTION_CONFIGURATION_CHANGED);
+        context.registerReceiver(mReceiver, filter);
+    }
+
+    private static String key(String packageName, int theme) {
+        return packageName + '/' + theme;
+    }
+
+    /**
+     * @return The cached attributes, or null if they haven't been resolved
+     *   since the package or the configuration last changed.
+     */
+    synchronized Entry get(String packageName, int theme) {
+        final Entry entry = mEntries.get(key(packageName, theme));
+        if (entry == null) {
+            mMisses++;
+        } else {
+            mHits++;
+            if (!entry.showsPreview()) {
+                mSkipped++;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Resolve the window attributes of a context that already has the
+     * starting window's theme, and remember them.
+     */
+    Entry resolve(Context themedContext, String packageName, int theme) {
+        final TypedArray a = themedContext.obtainStyledAttributes(
+                com.android.internal.R.styleable.Window);
+        final Entry entry = new Entry(packageName, a);
+        a.recycle();
+        synchronized (this) {
+            mEntries.put(key(packageName, theme), entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Take the pooled window for this (package, theme), if there is one
+     * that was built under the current configuration.
+     */
+    synchronized PooledWindow takeWindow(String packageName, int theme, Configuration current) {
+        final PooledWindow pooled = mPool.remove(key(packageName, theme));
+        if (pooled == null) {
+            mPoolMisses++;
+            return null;
+        }
+        final View decor = pooled.window.peekDecorView();
+        if (!pooled.config.equals(current)
+                || (decor != null && decor.getWindowToken() != null)) {
+            // built for another configuration, or still attached to the
+            // root it was last shown in
+            mPoolStale++;
+            return null;
+        }
+        mPoolHits++;
+        return pooled;
+    }
+
+    /**
+     * Put an idle window in the pool, evicting the least recently used
+     * one if it is full.
+     */
+    synchronized void putWindow(PooledWindow pooled) {
+        mPool.put(key(pooled.packageName, pooled.theme), pooled);
+    }
+
+    /**
+     * Note that the window's decor has been added to the window manager,
+     * so that {@link #recycle} can pool it once it is removed.
+     */
+    synchronized void showing(PooledWindow pooled) {
+        mShowing.put(pooled.window.getDecorView(), pooled);
+    }
+
+    /**
+     * Pool the window of a starting window that has just been removed.
+     * Does nothing if the view wasn't from a poolable window, or is still
+     * attached to its old root.
+     */
+    synchronized void recycle(View decor) {
+        final PooledWindow pooled = mShowing.remove(decor);
+        if (pooled == null || decor.getParent() != null
+                || decor.getWindowToken() != null) {
+            return;
+        }
+        putWindow(pooled);
+    }
+
+    synchronized void removePackage(String packageName) {
+        final Iterator<Entry> it = mEntries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().packageName.equals(packageName)) {
+                it.remove();
+            }
+        }
+        final Iterator<PooledWindow> pit = mPool.values().iterator();
+        while (pit.hasNext()) {
+            if (pit.next().packageName.equals(packageName)) {
+                pit.remove();
+            }
+        }
+        final Iterator<PooledWindow> sit = mShowing.values().iterator();
+        while (sit.hasNext()) {
+            if (sit.next().packageName.equals(packageName)) {
+                sit.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+        mPool.clear();
+        mShowing.clear();
+    }
+
+    synchronized void dump(String prefix, PrintWriter pw) {
+        pw.print(prefix); pw.print("Starting window cache: cached="); pw.print(mEntries.size());
+                pw.print(" hits="); pw.print(mHits);
+                pw.print(" misses="); pw.print(mMisses);
+                pw.print(" skipped="); pw.println(mSkipped);
+        pw.print(prefix); pw.print("Starting window pool: pooled="); pw.print(mPool.size());
+                pw.print(" showing="); pw.print(mShowing.size());
+                pw.print(" hits="); pw.print(mPoolHits);
+                pw.print(" misses="); pw.print(mPoolMisses);
+                pw.print(" stale="); pw.print(mPoolStale);
+                final int takes = mPoolHits + mPoolMisses + mPoolStale;
+                pw.print(" hitRate="); pw.print(takes != 0 ? mPoolHits * 100 / takes : 0);
+                pw.println("%");
+    }
+}
@@ -0,0 +1,58 @@
+#!/bin/sh
+#
+# Copyright (C) 2010 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+# Regenerates preloaded-policy-classes from the policy classes loaded in the
+# system server of the attached device.
+#
+# Boot the device, unlock it and launch an app first: the system server then
+# has loaded the window manager policy and keyguard classes, and has built
+# the app's starting window with the same PhoneWindow and inflater classes
+# the app uses.  Review the diff before checking it in.
+
+set -e
+cd "$(dirname "$0")"
+LIST=preloaded-policy-classes
+
+adb logcat -c
+# PhoneWindowManager.dump() writes the system server's loaded classes to the
+# log.  WindowManagerService doesn't pass dumpsys on to the policy, so ask
+# for it through the policy's dump broadcast (see PolicyDump).
+adb shell am broadcast -a com.android.internal.policy.impl.DUMP_POLICY \
+        --es args print-loaded-classes > /dev/null
+sleep 1
+
+# Anonymous classes are left out: their names change whenever the source
+# around them does.
+adb logcat -d -s dalvikvm \
+    | grep -o 'Lcom/android/internal/policy/impl/[^;]*;' \
+    | sed -e 's/^L//' -e 's/;$//' -e 's|/|.|g' \
+    | grep -v '\$[0-9]' \
+    | sort -u > $LIST.classes
+count=$(wc -l < $LIST.classes)
+if [ "$count" -eq 0 ]; then
+    rm -f $LIST.classes
+    echo "No policy classes found in the log; $LIST left unchanged" >&2
+    exit 1
+fi
+
+{
+    grep '^#' $LIST
+    cat $LIST.classes
+} > $LIST.new
+rm $LIST.classes
+mv $LIST.new $LIST
+echo "Wrote $count classes to $LIST"